@@ -29,6 +29,11 @@
 
 package dk.brics.automaton;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.regex.MatchResult;
 
 /**
@@ -41,23 +46,87 @@ import java.util.regex.MatchResult;
  */
 public class AutomatonMatcher implements MatchResult {
 
+	/**
+	 * Produces the replacement of each match for
+	 * {@link AutomatonMatcher#replaceAll(Replacer, Appendable)} and
+	 * {@link AutomatonMatcher#replaceFirst(Replacer, Appendable)}.
+	 */
+	public interface Replacer {
+
+		/**
+		 * Appends the replacement of a match.
+		 * @param chars the input
+		 * @param start offset of the first character of the match in {@code chars}
+		 * @param end offset after the last character of the match in {@code chars}
+		 * @param out where to append the replacement
+		 * @throws IOException if appending fails
+		 */
+		void replace(CharSequence chars, int start, int end, Appendable out) throws IOException;
+	}
+
+	/**
+	 * Receives the pieces of the input found by
+	 * {@link AutomatonMatcher#split(SplitHandler)}.
+	 */
+	public interface SplitHandler {
+
+		/**
+		 * Called for each piece of the input between matches, in order.
+		 * @param chars the input
+		 * @param start offset of the first character of the piece in {@code chars}
+		 * @param end offset after the last character of the piece in {@code chars}
+		 * @throws IOException if the handler fails
+		 */
+		void piece(CharSequence chars, int start, int end) throws IOException;
+	}
+
 	AutomatonMatcher(final CharSequence chars, final RunAutomaton automaton) {
+		this(chars, automaton, 0, chars.length());
+	}
+
+	AutomatonMatcher(final CharSequence chars, final RunAutomaton automaton, final int from, final int to) {
 		this.chars = chars;
+		this.from = from;
+		this.to = to;
 		this.automaton = automaton;
+		this.captures = automaton instanceof CaptureRunAutomaton ? (CaptureRunAutomaton) automaton : null;
 	}
 
 	private final RunAutomaton automaton;
-	private final CharSequence chars;
+	private final CaptureRunAutomaton captures; // null if the automaton has no capturing groups
+	private CharSequence chars;
+	private char[] array; // the chars, if the input is a char array, or null
+	private int from; // offset of the region in chars
+	private int to; // offset after the region in chars
 
 	private int matchStart = -1;
 
 	private int matchEnd = -1;
 
+	private int[] candidates; // candidate match starts, reused by find()
+
+	private int idle; // set by earliestMatchEnd, no match starts before it
+
+	private CandidateRuns runs; // runs from the candidates, allocated on first use
+
+	private int[] groups; // offsets of the groups of the current match, allocated on first use
+	private boolean groupsFound; // true if groups holds the offsets for the current match
+	private CaptureRunAutomaton.Workspace workspace; // for finding groups, allocated on first use
+	private MatchedChars matched; // view of the current match, allocated on first use
+
 	/**
 	 * Find the next matching subsequence of the input.
 	 * <br>
 	 * This also updates the values for the {@code start}, {@code end}, and
 	 * {@code group} methods.
+	 * <br>
+	 * The leftmost of the longest matches is found in time linear in the
+	 * number of chars read, which are the chars up to the end of the match
+	 * and the lookahead needed to find that end. A call reads each of them at
+	 * most three times: in the search for the earliest match end, in a
+	 * reverse scan for candidate starts, and in a forward pass that runs from
+	 * all candidates at once, at a cost per char that is bounded by the
+	 * number of states of the automaton.
 	 *
 	 * @return {@code true} if there is a matching subsequence.
 	 */
@@ -67,48 +136,76 @@ public class AutomatonMatcher implements MatchResult {
 			case -2:
 			return false;
 			case -1:
-			begin = 0;
+			begin = from;
 				break;
 			default:
 			begin = getMatchEnd();
 				// This occurs when a previous find() call matched the empty string. This can happen when the pattern is a* for example.
 				if(begin == getMatchStart()) {
 					begin += 1;
-					if(begin > getChars().length()) {
+					if(begin > to) {
 						setMatch(-2, -2);
 						return false;
 					}
 				}
 		}
 
-		int match_start;
-		int match_end;
+		int l = to;
+		int match_start = -1;
+		int match_end = -1;
 		if (automaton.isAccept(automaton.getInitialState())) {
+			// the empty string is accepted, so the leftmost match starts right here
 			match_start = begin;
-			match_end = begin;
+			match_end = longestMatchEnd(begin, l);
 		} else {
-			match_start = -1;
-			match_end = -1;
-		}
-		int l = getChars().length();
-		while (begin < l) {
-			int p = automaton.getInitialState();
-			for (int i = begin; i < l; i++) {
-				final int new_state = automaton.step(p, getChars().charAt(i));
-				if (new_state == -1) {
-				    break;
-				} else if (automaton.isAccept(new_state)) {
-				    // found a match from begin to (i+1)
-				    match_start = begin;
-				    match_end=(i+1);
+			// No match can end before the earliest match end found by the search
+			// automaton, so the leftmost match starts at or before it. Scanning
+			// backwards from there, the reversed prefix automaton accepts at the
+			// positions from which the chars up to that end can be extended to a
+			// match. The leftmost of these that actually starts a match is the
+			// leftmost match, found by running from all of them at once.
+			int end = earliestMatchEnd(begin, l);
+			if (end != -1) {
+				RunAutomaton reverse = automaton.getPrefixReverseAutomaton();
+				int n = 0;
+				int p = reverse.getInitialState();
+				for (int i = end - 1; i >= idle; i--) {
+					p = reverse.step(p, charAt(i));
+					if (p == -1)
+						break;
+					if (reverse.isAccept(p)) {
+						if (candidates == null)
+							candidates = new int[16];
+						else if (n == candidates.length)
+							candidates = Arrays.copyOf(candidates, n * 2);
+						candidates[n++] = i;
+					}
+				}
+				if (n > 0) {
+					if (runs == null)
+						runs = new CandidateRuns(automaton);
+					runs.clear();
+					int k = n - 1;
+					for (int i = candidates[k]; ; i++) {
+						if (k >= 0 && candidates[k] == i)
+							runs.add(candidates[k--]);
+						if (!runs.accept(i)) {
+							if (runs.matchStart != -1 || k < 0)
+								break;
+							// no runs left, so skip to the next candidate
+							i = candidates[k] - 1;
+							continue;
+						}
+						if (i == l)
+							break;
+						runs.step(automaton.getCharClass(charAt(i)));
+					}
+					if (runs.matchStart != -1) {
+						match_start = (int) runs.matchStart;
+						match_end = runs.matchEnd == CandidateRuns.TO_END ? l : (int) runs.matchEnd;
+					}
 				}
-				p = new_state;
-			}
-			if (match_start != -1) {
-				setMatch(match_start, match_end);
-				return true;
 			}
-			begin += 1;
 		}
 		if (match_start != -1) {
 			setMatch(match_start, match_end);
@@ -119,12 +216,278 @@ public class AutomatonMatcher implements MatchResult {
 		}
 	}
 
+	/**
+	 * Returns the end of the first match found when scanning forward from
+	 * <code>begin</code> with the search automaton, or -1 if there is none.
+	 * Whenever the search automaton is in its initial state, no match is under
+	 * way, so if the automaton has a required literal, the scan skips ahead
+	 * to near its next occurrence, and then to the next char that leaves the
+	 * initial state.
+	 */
+	private int earliestMatchEnd(final int begin, final int l) {
+		RunAutomaton search = automaton.getSearchAutomaton();
+		RequiredFactor required = automaton.getRequiredFactor();
+		EscapeSet escape = search.getInitialEscapeSet();
+		int initial = search.getInitialState();
+		int p = initial;
+		int next = -1; // the next occurrence of the required literal
+		for (int i = begin; i < l; i++) {
+			if (p == initial) {
+				if (required != null && next < i) {
+					next = required.indexIn(getChars(), i, l);
+					if (next == -1)
+						return -1;
+					if (required.maxBefore != -1 && next - required.maxBefore > i)
+						i = next - required.maxBefore;
+				}
+				if (escape != null) {
+					i = escape.next(getChars(), i, l);
+					if (i == l)
+						return -1;
+				}
+				idle = i;
+			}
+			p = search.step(p, charAt(i));
+			if (p == -1)
+				return -1;
+			if (search.isAccept(p))
+				return i + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the end of the longest match starting at <code>start</code>,
+	 * or -1 if there is none.
+	 */
+	private int longestMatchEnd(final int start, final int l) {
+		int p = automaton.getInitialState();
+		int max = automaton.isAccept(p) ? start : -1;
+		for (int i = start; i < l; i++) {
+			if (automaton.isUniversal(p))
+				return l;
+			p = automaton.step(p, charAt(i));
+			if (p == -1)
+				break;
+			if (automaton.isAccept(p))
+				max = i + 1;
+		}
+		return max;
+	}
+
+	/**
+	 * Resets this matcher, so that the next {@link #find()} starts at the
+	 * beginning of the input.
+	 *
+	 * @return this matcher.
+	 */
+	public AutomatonMatcher reset() {
+		setMatch(-1, -1);
+		return this;
+	}
+
+	/**
+	 * Resets this matcher with a new input, so that it can be reused without
+	 * allocating a new one. Once a matcher has been used, finding matches and
+	 * reading their offsets with {@link #start()}, {@link #end()},
+	 * {@link #start(int)}, {@link #end(int)} and {@link #groupChars()}
+	 * allocate no objects.
+	 *
+	 * @param chars the new input.
+	 * @return this matcher.
+	 */
+	public AutomatonMatcher reset(final CharSequence chars) {
+		return reset(chars, 0, chars.length());
+	}
+
+	/**
+	 * Resets this matcher with a region of a new input. The input is not
+	 * copied, and the offsets of matches are relative to the start of the
+	 * region.
+	 *
+	 * @param chars the new input.
+	 * @param startOffset offset of the first character of the region.
+	 * @param endOffset offset after the last character of the region.
+	 * @return this matcher.
+	 * @throws IndexOutOfBoundsException if the region is not within the input.
+	 */
+	public AutomatonMatcher reset(final CharSequence chars, final int startOffset, final int endOffset) throws IndexOutOfBoundsException {
+		checkRegion(chars.length(), startOffset, endOffset);
+		this.chars = chars;
+		this.array = null;
+		this.from = startOffset;
+		this.to = endOffset;
+		return reset();
+	}
+
+	/**
+	 * Resets this matcher with a region of a new input array, which is read
+	 * directly. The array is not copied, and the offsets of matches are
+	 * relative to the start of the region.
+	 *
+	 * @param chars the new input.
+	 * @param startOffset offset of the first character of the region.
+	 * @param endOffset offset after the last character of the region.
+	 * @return this matcher.
+	 * @throws IndexOutOfBoundsException if the region is not within the input.
+	 */
+	public AutomatonMatcher reset(final char[] chars, final int startOffset, final int endOffset) throws IndexOutOfBoundsException {
+		reset(CharBuffer.wrap(chars), startOffset, endOffset);
+		this.array = chars;
+		return this;
+	}
+
+	/** Helper method that checks that a region is within an input of the given length. */
+	static void checkRegion(final int length, final int startOffset, final int endOffset) throws IndexOutOfBoundsException {
+		if (startOffset < 0 || startOffset > endOffset || endOffset > length) {
+			throw new IndexOutOfBoundsException("Region " + startOffset + "-" + endOffset + " is not within the input of length " + length + ".");
+		}
+	}
+
+	/**
+	 * Replaces every match in the input with the given string, and appends
+	 * the result to <code>out</code>. The matcher is reset first, and no
+	 * substrings of the input are created.
+	 * <br>
+	 * Unlike {@link java.util.regex.Matcher#replaceAll(String)}, the
+	 * replacement is taken literally.
+	 *
+	 * @param replacement the replacement string.
+	 * @param out where to append the result.
+	 * @return {@code out}.
+	 * @throws IOException if appending fails.
+	 */
+	public <A extends Appendable> A replaceAll(final CharSequence replacement, final A out) throws IOException {
+		return replace(null, replacement, out, true);
+	}
+
+	/**
+	 * Replaces every match in the input with what the given replacer
+	 * appends, and appends the result to <code>out</code>. The matcher is
+	 * reset first, and no substrings of the input are created.
+	 *
+	 * @param replacer called for each match, in order.
+	 * @param out where to append the result.
+	 * @return {@code out}.
+	 * @throws IOException if appending fails.
+	 */
+	public <A extends Appendable> A replaceAll(final Replacer replacer, final A out) throws IOException {
+		return replace(replacer, null, out, true);
+	}
+
+	/**
+	 * Returns the input with every match replaced with the given string,
+	 * taken literally.
+	 *
+	 * @param replacement the replacement string.
+	 * @return the input with every match replaced.
+	 * @see #replaceAll(CharSequence, Appendable)
+	 */
+	public String replaceAll(final CharSequence replacement) {
+		try {
+			return replace(null, replacement, new StringBuilder(to - from), true).toString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // not thrown by StringBuilder
+		}
+	}
+
+	/**
+	 * Replaces the first match in the input with the given string, and
+	 * appends the result to <code>out</code>. The matcher is reset first.
+	 *
+	 * @param replacement the replacement string, taken literally.
+	 * @param out where to append the result.
+	 * @return {@code out}.
+	 * @throws IOException if appending fails.
+	 */
+	public <A extends Appendable> A replaceFirst(final CharSequence replacement, final A out) throws IOException {
+		return replace(null, replacement, out, false);
+	}
+
+	/**
+	 * Replaces the first match in the input with what the given replacer
+	 * appends, and appends the result to <code>out</code>. The matcher is
+	 * reset first.
+	 *
+	 * @param replacer called for the first match, if any.
+	 * @param out where to append the result.
+	 * @return {@code out}.
+	 * @throws IOException if appending fails.
+	 */
+	public <A extends Appendable> A replaceFirst(final Replacer replacer, final A out) throws IOException {
+		return replace(replacer, null, out, false);
+	}
+
+	private <A extends Appendable> A replace(final Replacer replacer, final CharSequence replacement, final A out, final boolean all) throws IOException {
+		reset();
+		int last = from;
+		while (find()) {
+			appendChars(out, last, matchStart);
+			if (replacer != null) {
+				replacer.replace(chars, matchStart, matchEnd, out);
+			} else {
+				out.append(replacement);
+			}
+			last = matchEnd;
+			if (!all) {
+				break;
+			}
+		}
+		appendChars(out, last, to);
+		return out;
+	}
+
+	/**
+	 * Helper method that appends the given region of the input. A
+	 * {@code Writer} would create a substring for it, unless the input is a
+	 * string or array that it can write from directly.
+	 */
+	private void appendChars(final Appendable out, final int start, final int end) throws IOException {
+		if (out instanceof Writer && array != null) {
+			((Writer) out).write(array, start, end - start);
+		} else if (out instanceof Writer && chars instanceof String) {
+			((Writer) out).write((String) chars, start, end - start);
+		} else {
+			out.append(chars, start, end);
+		}
+	}
+
+	/**
+	 * Splits the input around the matches, and passes each piece to the
+	 * given handler as offsets into the input. The matcher is reset first.
+	 * <br>
+	 * The pieces are those of {@link java.util.regex.Pattern#split(CharSequence, int)}
+	 * with a negative limit. There is one more piece than there are matches,
+	 * and empty pieces are kept, except the one before an empty match at the
+	 * start of the input.
+	 *
+	 * @param handler called for each piece, in order.
+	 * @return the number of pieces.
+	 * @throws IOException if the handler fails.
+	 */
+	public int split(final SplitHandler handler) throws IOException {
+		reset();
+		int n = 0;
+		int last = from;
+		while (find()) {
+			if (matchEnd == from) {
+				continue;
+			}
+			handler.piece(chars, last, matchStart);
+			n++;
+			last = matchEnd;
+		}
+		handler.piece(chars, last, to);
+		return n + 1;
+	}
+
 	private void setMatch(final int matchStart, final int matchEnd) throws IllegalArgumentException {
 		if (matchStart > matchEnd) {
 			throw new IllegalArgumentException("Start must be less than or equal to end: " + matchStart + ", " + matchEnd);
 		}
 		this.matchStart = matchStart;
 		this.matchEnd = matchEnd;
+		this.groupsFound = false;
 	}
 
 	private int getMatchStart() {
@@ -139,6 +502,11 @@ public class AutomatonMatcher implements MatchResult {
 		return chars;
 	}
 
+	/** Helper method that reads a char of the input, from the array if there is one. */
+	private char charAt(final int i) {
+		return array != null ? array[i] : chars.charAt(i);
+	}
+
 	/**
 	 * Returns the offset after the last character matched.
 	 *
@@ -148,15 +516,15 @@ public class AutomatonMatcher implements MatchResult {
 	 */
 	public int end() throws IllegalStateException {
 		matchGood();
-		return matchEnd;
+		return matchEnd - from;
 	}
 
 	/**
 	 * Returns the offset after the last character matched of the specified
 	 * capturing group.
 	 * <br>
-	 * Note that because the automaton does not support capturing groups the
-	 * only valid group is 0 (the entire match).
+	 * Group 0 is the entire match. Other groups are only supported if the
+	 * automaton is a {@link CaptureRunAutomaton}.
 	 *
 	 * @param group the desired capturing group.
 	 * @return The offset after the last character matched of the specified
@@ -167,8 +535,7 @@ public class AutomatonMatcher implements MatchResult {
 	 *  not exist in the underlying automaton.
 	 */
 	public int end(final int group) throws IndexOutOfBoundsException, IllegalStateException {
-		onlyZero(group);
-		return end();
+		return groupOffset(group, 1);
 	}
 
 	/**
@@ -183,37 +550,55 @@ public class AutomatonMatcher implements MatchResult {
 		return chars.subSequence(matchStart, matchEnd).toString();
 	}
 
+	/**
+	 * Returns the chars found by the previous match, as a view of the input
+	 * that is not copied. The view is reused, and follows the current match
+	 * of this matcher, so it is only valid until the next match operation.
+	 *
+	 * @return The chars found by the previous match.
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public CharSequence groupChars() throws IllegalStateException {
+		matchGood();
+		if (matched == null) {
+			matched = new MatchedChars();
+		}
+		return matched;
+	}
+
 	/**
 	 * Returns the subsequence of the input found by the specified capturing
 	 * group during the previous match operation.
 	 * <br>
-	 * Note that because the automaton does not support capturing groups the
-	 * only valid group is 0 (the entire match).
+	 * Group 0 is the entire match. Other groups are only supported if the
+	 * automaton is a {@link CaptureRunAutomaton}.
 	 *
 	 * @param group the desired capturing group.
 	 * @return The subsequence of the input found by the specified capturing
 	 *  group during the previous match operation the previous match. Or
-	 *  {@code null} if the given group did match.
+	 *  {@code null} if the given group did not match.
 	 * @throws IllegalStateException if there has not been a match attempt or
 	 *  if the last attempt yielded no results.
 	 * @throws IndexOutOfBoundsException if the specified capturing group does
 	 *  not exist in the underlying automaton.
 	 */
 	public String group(final int group) throws IndexOutOfBoundsException, IllegalStateException {
-		onlyZero(group);
-		return group();
+		int start = groupOffset(group, 0);
+		if (start == -1)
+			return null;
+		return chars.subSequence(from + start, from + groupOffset(group, 1)).toString();
 	}
 
 	/**
 	 * Returns the number of capturing groups in the underlying automaton.
 	 * <br>
-	 * Note that because the automaton does not support capturing groups this
-	 * method will always return 0.
+	 * This is 0 unless the automaton is a {@link CaptureRunAutomaton}.
 	 *
 	 * @return The number of capturing groups in the underlying automaton.
 	 */
 	public int groupCount() {
-		return 0;
+		return captures == null ? 0 : captures.getGroupCount();
 	}
 
 	/**
@@ -225,15 +610,15 @@ public class AutomatonMatcher implements MatchResult {
 	 */
 	public int start() throws IllegalStateException {
 		matchGood();
-		return matchStart;
+		return matchStart - from;
 	}
 
 	/**
 	 * Returns the offset of the first character matched of the specified
 	 * capturing group.
 	 * <br>
-	 * Note that because the automaton does not support capturing groups the
-	 * only valid group is 0 (the entire match).
+	 * Group 0 is the entire match. Other groups are only supported if the
+	 * automaton is a {@link CaptureRunAutomaton}.
 	 *
 	 * @param group the desired capturing group.
 	 * @return The offset of the first character matched of the specified
@@ -244,29 +629,87 @@ public class AutomatonMatcher implements MatchResult {
 	 *  not exist in the underlying automaton.
 	 */
 	public int start(int group) throws IndexOutOfBoundsException, IllegalStateException {
-		onlyZero(group);
-		return start();
+		return groupOffset(group, 0);
 	}
 
 	/**
 	 * Returns the current state of this {@code AutomatonMatcher} as a
 	 * {@code MatchResult}.
 	 * The result is unaffected by subsequent operations on this object.
+	 * <br>
+	 * This copies the state. To read the current match without copying, use
+	 * the matcher itself, which is a {@code MatchResult}.
 	 *
 	 * @return a {@code MatchResult} with the state of this
 	 *  {@code AutomatonMatcher}.
 	 */
 	public MatchResult toMatchResult() {
-		final AutomatonMatcher match = new AutomatonMatcher(chars, automaton);
+		final AutomatonMatcher match = new AutomatonMatcher(chars, automaton, from, to);
+		match.array = this.array;
 		match.matchStart = this.matchStart;
 		match.matchEnd = this.matchEnd;
+		if (groupsFound) {
+			match.groups = this.groups.clone();
+			match.groupsFound = true;
+		}
 		return match;
 	}
 
-	/** Helper method that requires the group argument to be 0. */
-	private static void onlyZero(final int group) throws IndexOutOfBoundsException {
-		if (group != 0) {
-			throw new IndexOutOfBoundsException("The only group supported is 0.");
+	/**
+	 * Helper method that returns the start (<code>k</code> = 0) or end
+	 * (<code>k</code> = 1) offset of the given group in the current match, or
+	 * -1 if the group did not match. The offsets of the groups are found on
+	 * first use, by {@link CaptureRunAutomaton}.
+	 */
+	private int groupOffset(final int group, final int k) throws IndexOutOfBoundsException, IllegalStateException {
+		if (group < 0 || group > groupCount()) {
+			throw new IndexOutOfBoundsException("No group " + group + ", the automaton has " + groupCount() + " capturing groups.");
+		}
+		matchGood();
+		if (group == 0) {
+			return (k == 0 ? matchStart : matchEnd) - from;
+		}
+		if (!groupsFound) {
+			if (groups == null) {
+				groups = new int[2 * captures.getGroupCount()];
+				workspace = new CaptureRunAutomaton.Workspace(captures);
+			}
+			captures.captures(chars, matchStart, matchEnd, workspace, groups);
+			groupsFound = true;
+		}
+		final int offset = groups[2 * (group - 1) + k];
+		return offset == -1 ? -1 : offset - from;
+	}
+
+	/**
+	 * View of the chars of the current match.
+	 */
+	private final class MatchedChars implements CharSequence {
+
+		@Override
+		public int length() {
+			return matchEnd - matchStart;
+		}
+
+		@Override
+		public char charAt(final int index) {
+			if (index < 0 || index >= length()) {
+				throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+			}
+			return chars.charAt(matchStart + index);
+		}
+
+		@Override
+		public CharSequence subSequence(final int start, final int end) {
+			if (start < 0 || start > end || end > length()) {
+				throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length());
+			}
+			return chars.subSequence(matchStart + start, matchStart + end);
+		}
+
+		@Override
+		public String toString() {
+			return chars.subSequence(matchStart, matchEnd).toString();
 		}
 	}
 
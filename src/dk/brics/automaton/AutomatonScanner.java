@@ -0,0 +1,149 @@
+package dk.brics.automaton;
+
+import java.nio.CharBuffer;
+
+/**
+ * A scanner that is fed its input in chunks and carries the state of the
+ * automaton from one chunk to the next, without buffering any chars.
+ *
+ * <p>A scanner from {@link RunAutomaton#newScanner()} tells whether all
+ * chars fed so far are accepted, like {@link RunAutomaton#run(String)} on
+ * their concatenation. A scanner from {@link MatchOnlyRunAutomaton#newScanner()}
+ * tells whether they contain a match, like
+ * {@link MatchOnlyRunAutomaton#matches(CharSequence)}.
+ *
+ * <p>The whole state of a scanner is the pair of {@link #getState()} and
+ * {@link #getOffset()}, so a long stream can be checkpointed by saving them,
+ * and resumed, also in another process, by passing them to
+ * <code>resumeScanner</code> of the same automaton, for instance one loaded
+ * from the same stored copy. The state numbers are not valid for other
+ * automata, even equivalent ones.
+ */
+public class AutomatonScanner {
+
+	AutomatonScanner(final RunAutomaton automaton, final boolean search, final EscapeSet escape,
+			final int state, final long offset) {
+		boolean valid = search ? state == MatchOnlyRunAutomaton.ACCEPTED_STATE || state >= 0 : state >= -1;
+		if (!valid || state >= automaton.getSize()) {
+			throw new IllegalArgumentException("state " + state + " is not a state of this automaton");
+		}
+		if (offset < 0) {
+			throw new IllegalArgumentException("offset cannot be negative");
+		}
+		this.automaton = automaton;
+		this.search = search;
+		this.escape = escape;
+		this.state = state;
+		this.offset = offset;
+	}
+
+	private final RunAutomaton automaton;
+	private final boolean search; // true if looking for a match anywhere in the input
+	private final EscapeSet escape; // chars that leave the initial state, may be null
+
+	private int state; // current state, -1 if dead, or ACCEPTED_STATE once a search has matched
+	private long offset; // number of chars fed so far
+	private boolean finished;
+
+	/**
+	 * Feeds the given chars to the scanner.
+	 * @param chunk array holding the chars
+	 * @param off offset of the first char in <code>chunk</code>
+	 * @param len number of chars
+	 * @exception IllegalStateException if {@link #finish()} has been called
+	 */
+	public void feed(final char[] chunk, final int off, final int len) {
+		if (off < 0 || len < 0 || off > chunk.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		feed(CharBuffer.wrap(chunk), off, off + len);
+	}
+
+	/**
+	 * Feeds the given chars to the scanner.
+	 * @param chunk the chars
+	 * @exception IllegalStateException if {@link #finish()} has been called
+	 */
+	public void feed(final CharSequence chunk) {
+		feed(chunk, 0, chunk.length());
+	}
+
+	private void feed(final CharSequence s, final int from, final int to) {
+		if (finished) {
+			throw new IllegalStateException("The scanner has finished.");
+		}
+		offset += to - from;
+		RunAutomaton a = automaton;
+		int p = state;
+		if (search) {
+			if (p == MatchOnlyRunAutomaton.ACCEPTED_STATE) {
+				return;
+			}
+			// same loop as MatchOnlyRunAutomaton.matches, except for the
+			// required literal, which may be split across chunks
+			int initial = a.getInitialState();
+			for (int i = from; i < to; i++) {
+				if (p == initial && escape != null) {
+					i = escape.next(s, i, to);
+					if (i == to) {
+						break;
+					}
+				}
+				p = a.step(p, s.charAt(i));
+				if (p == -1) {
+					p = initial;
+				} else if (p == MatchOnlyRunAutomaton.ACCEPTED_STATE) {
+					break;
+				}
+			}
+		} else {
+			for (int i = from; i < to; i++) {
+				if (p == -1 || a.isUniversal(p)) {
+					break;
+				}
+				p = a.step(p, s.charAt(i));
+			}
+		}
+		state = p;
+	}
+
+	/**
+	 * Returns true if the chars fed so far are accepted, or for a scanner of
+	 * a {@link MatchOnlyRunAutomaton}, contain a match.
+	 */
+	public boolean isMatched() {
+		return state == MatchOnlyRunAutomaton.ACCEPTED_STATE || (state >= 0 && automaton.isAccept(state));
+	}
+
+	/**
+	 * Returns true if feeding more chars cannot change the result of
+	 * {@link #isMatched()}.
+	 */
+	public boolean isDecided() {
+		return state < 0 || (!search && automaton.isUniversal(state));
+	}
+
+	/**
+	 * Ends the input and returns the result of {@link #isMatched()}. The
+	 * scanner cannot be fed after this.
+	 */
+	public boolean finish() {
+		finished = true;
+		return isMatched();
+	}
+
+	/**
+	 * Returns the current state, which together with {@link #getOffset()}
+	 * is the snapshot of this scanner.
+	 */
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the number of chars fed so far.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+}
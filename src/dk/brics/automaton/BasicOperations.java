@@ -640,7 +640,8 @@ final public class BasicOperations {
 	 * <p>
 	 * Complexity: linear in the length of the string.
 	 * <p>
-	 * <b>Note:</b> for full performance, use the {@link RunAutomaton} class.
+	 * <b>Note:</b> for full performance, use the {@link RunAutomaton} class,
+	 * or {@link BitParallelRunAutomaton} for nondeterministic automata.
 	 */
 	public static boolean run(Automaton a, String s) {
 		if (a.isSingleton())
@@ -0,0 +1,81 @@
+package dk.brics.automaton;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Spliterator over the indexes of the strings of an array that are accepted
+ * by a {@link RunAutomaton}.
+ *
+ * <p>It splits by halving its range of the array, down to
+ * {@value #MIN_BATCH} strings, so that the split is balanced by the number
+ * of strings, and {@link #forEachRemaining} runs the automaton over its
+ * range in a single loop. Each index is decided on its own, so the indexes
+ * reported are the same however the array is split.
+ */
+final class BatchSpliterator implements Spliterator.OfInt {
+
+	/** Fewest strings in a split. */
+	static final int MIN_BATCH = 1 << 10;
+
+	private final RunAutomaton a;
+	private final CharSequence[] strings;
+	private int from; // next index to run
+	private final int to;
+
+	BatchSpliterator(RunAutomaton a, CharSequence[] strings, int from, int to) {
+		this.a = a;
+		this.strings = strings;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	public boolean tryAdvance(IntConsumer action) {
+		while (from < to) {
+			int i = from++;
+			if (a.runChars(strings[i])) {
+				action.accept(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void forEachRemaining(IntConsumer action) {
+		RunAutomaton a = this.a;
+		CharSequence[] strings = this.strings;
+		for (int i = from; i < to; i++)
+			if (a.runChars(strings[i]))
+				action.accept(i);
+		from = to;
+	}
+
+	@Override
+	public Spliterator.OfInt trySplit() {
+		int n = to - from;
+		if (n < 2 * MIN_BATCH)
+			return null;
+		int mid = from + n / 2;
+		BatchSpliterator prefix = new BatchSpliterator(a, strings, from, mid);
+		from = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return to - from;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE;
+	}
+
+	@Override
+	public Comparator<? super Integer> getComparator() {
+		return null;
+	}
+}
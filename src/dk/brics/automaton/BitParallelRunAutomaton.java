@@ -0,0 +1,269 @@
+package dk.brics.automaton;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Nondeterministic finite-state automaton with a bit-parallel run operation.
+ *
+ * <p>The automaton is not determinized. Its transitions are turned into
+ * positions, one for each target state and char interval, so that all
+ * transitions into a position have the same label, like in a Glushkov
+ * automaton. The set of active positions is kept as a bitset of
+ * <code>long</code> words, and each input char is read with
+ * <pre>
+ *   active = follow(active) &amp; mask(c)
+ * </pre>
+ * where <code>follow</code> is the union of the positions that may follow
+ * the active ones, and <code>mask(c)</code> is the set of positions whose
+ * interval contains <code>c</code>. For up to {@value #TABLE_MAX_POSITIONS}
+ * positions, <code>follow</code> is read from precomputed tables, one for
+ * each 8 positions, and otherwise it is computed from the active positions.
+ *
+ * <p>Running takes linear time in the length of the input and does not
+ * allocate, except for two bitsets per run when there are more than 64
+ * positions. This is most useful for small automata that are expensive to
+ * determinize. See {@link RunAutomaton} for the deterministic counterpart.
+ */
+public class BitParallelRunAutomaton implements Serializable {
+
+	static final long serialVersionUID = 90001;
+
+	/** Number of positions above which <code>follow</code> is not tableized. */
+	static final int TABLE_MAX_POSITIONS = 256;
+
+	final int positions; // position 0 stands for the initial state
+	final int words; // number of longs per bitset
+	final char[] points;
+	final int[] classmap; // char class of each char below 256
+	final long[] masks; // per char class, the positions whose interval contains it
+	final long[] follow; // per position, the positions that may follow it
+	final long[] table; // per 8 positions and byte of active bits, the union of their follow; null if not tableized
+	final long[] accept; // the positions of accept states
+
+	/**
+	 * Constructs a new <code>BitParallelRunAutomaton</code> from an automaton,
+	 * which is not determinized.
+	 * @param a an automaton
+	 */
+	public BitParallelRunAutomaton(Automaton a) {
+		a = a.cloneExpanded();
+		points = a.getStartPoints();
+		Set<State> states = a.getStates();
+
+		// number the positions, which are the distinct pairs of target state and interval
+		Map<State, Map<Long, Integer>> ids = new HashMap<State, Map<Long, Integer>>();
+		int n = 1;
+		for (State s : states)
+			for (Transition t : s.transitions) {
+				Map<Long, Integer> m = ids.get(t.to);
+				if (m == null)
+					ids.put(t.to, m = new HashMap<Long, Integer>());
+				Long key = (long)t.min << 16 | t.max;
+				if (!m.containsKey(key))
+					m.put(key, n++);
+			}
+		positions = n;
+		words = (n + 63) >>> 6;
+
+		masks = new long[points.length * words];
+		follow = new long[positions * words];
+		accept = new long[words];
+		if (a.initial.accept)
+			accept[0] |= 1L;
+		for (State s : states) {
+			// the positions into s all have the follow set of s
+			long[] f = new long[words];
+			for (Transition t : s.transitions)
+				set(f, 0, ids.get(t.to).get((long)t.min << 16 | t.max));
+			if (s == a.initial)
+				System.arraycopy(f, 0, follow, 0, words);
+			Map<Long, Integer> m = ids.get(s);
+			if (m == null)
+				continue;
+			for (Map.Entry<Long, Integer> e : m.entrySet()) {
+				int p = e.getValue();
+				System.arraycopy(f, 0, follow, p * words, words);
+				if (s.accept)
+					set(accept, 0, p);
+				char min = (char)(e.getKey() >>> 16);
+				char max = (char)(e.getKey() & 0xffff);
+				for (int k = SpecialOperations.findIndex(min, points); k < points.length && points[k] <= max; k++)
+					set(masks, k * words, p);
+			}
+		}
+
+		if (positions <= TABLE_MAX_POSITIONS) {
+			int chunks = (positions + 7) >>> 3;
+			table = new long[chunks * 256 * words];
+			for (int j = 0; j < chunks; j++)
+				for (int b = 1; b < 256; b++) {
+					int p = 8 * j + Integer.numberOfTrailingZeros(b);
+					int to = (j * 256 + b) * words;
+					int from = (j * 256 + (b & (b - 1))) * words;
+					for (int w = 0; w < words; w++)
+						table[to + w] = table[from + w] | (p < positions ? follow[p * words + w] : 0);
+				}
+		} else
+			table = null;
+
+		classmap = new int[256];
+		for (int c = 0; c < classmap.length; c++)
+			classmap[c] = SpecialOperations.findIndex((char)c, points);
+	}
+
+	private static void set(long[] bits, int offset, int p) {
+		bits[offset + (p >>> 6)] |= 1L << p;
+	}
+
+	/**
+	 * Returns the number of positions, which is the number of bits in the
+	 * bitsets of active positions.
+	 */
+	public int getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Returns true if the given string is accepted by this automaton.
+	 */
+	public boolean run(CharSequence s) {
+		return scan(s, 0, false) == s.length();
+	}
+
+	/**
+	 * Returns the length of the longest accepted run of the given string
+	 * starting at the given offset.
+	 * @param s the string
+	 * @param offset offset into <code>s</code> where the run starts
+	 * @return length of the longest accepted run, -1 if no run is accepted
+	 */
+	public int run(CharSequence s, int offset) {
+		int end = scan(s, offset, false);
+		return end == -1 ? -1 : end - offset;
+	}
+
+	/**
+	 * Returns true if some substring of the given string is accepted by this
+	 * automaton. The scan stops at the end of the first match.
+	 */
+	public boolean matches(CharSequence s) {
+		return scan(s, 0, true) != -1;
+	}
+
+	private int charClass(char c) {
+		return c < 256 ? classmap[c] : SpecialOperations.findIndex(c, points);
+	}
+
+	/**
+	 * Runs on the given string from the given offset. In search mode, returns
+	 * the end of the first match found, otherwise the end of the longest match.
+	 * Returns -1 if there is no match.
+	 */
+	private int scan(CharSequence s, int offset, boolean searching) {
+		int match = (accept[0] & 1L) != 0 ? offset : -1;
+		if (searching && match != -1)
+			return match;
+		return words == 1 && table != null ? scanWord(s, offset, searching, match) : scanWords(s, offset, searching, match);
+	}
+
+	/** Scans with the active positions in a single long. */
+	private int scanWord(CharSequence s, int offset, boolean searching, int match) {
+		long[] table = this.table;
+		long[] masks = this.masks;
+		long acc = accept[0];
+		long d = 1L;
+		int l = s.length();
+		for (int i = offset; i < l; i++) {
+			if (searching)
+				d |= 1L;
+			long f = 0;
+			for (int j = 0; d != 0; j += 256, d >>>= 8)
+				f |= table[j + (int)(d & 0xff)];
+			d = f & masks[charClass(s.charAt(i))];
+			if ((d & acc) != 0) {
+				match = i + 1;
+				if (searching)
+					return match;
+			}
+			if (d == 0 && !searching)
+				break;
+		}
+		return match;
+	}
+
+	/** Scans with the active positions in an array of longs. */
+	private int scanWords(CharSequence s, int offset, boolean searching, int match) {
+		long[] d = new long[words];
+		long[] f = new long[words];
+		d[0] = 1L;
+		int l = s.length();
+		for (int i = offset; i < l; i++) {
+			if (searching)
+				d[0] |= 1L;
+			Arrays.fill(f, 0);
+			for (int w = 0; w < words; w++) {
+				long x = d[w];
+				if (table != null)
+					for (int j = w * 8 * 256; x != 0; j += 256, x >>>= 8) {
+						int from = (j + (int)(x & 0xff)) * words;
+						for (int v = 0; v < words; v++)
+							f[v] |= table[from + v];
+					}
+				else
+					for (; x != 0; x &= x - 1) {
+						int from = ((w << 6) + Long.numberOfTrailingZeros(x)) * words;
+						for (int v = 0; v < words; v++)
+							f[v] |= follow[from + v];
+					}
+			}
+			int k = charClass(s.charAt(i)) * words;
+			boolean live = false;
+			boolean accepts = false;
+			for (int w = 0; w < words; w++) {
+				d[w] = f[w] & masks[k + w];
+				live |= d[w] != 0;
+				accepts |= (d[w] & accept[w]) != 0;
+			}
+			if (accepts) {
+				match = i + 1;
+				if (searching)
+					return match;
+			}
+			if (!live && !searching)
+				break;
+		}
+		return match;
+	}
+
+	/**
+	 * Retrieves a serialized <code>BitParallelRunAutomaton</code> from a stream.
+	 * @param stream input stream with serialized automaton
+	 * @exception IOException if input/output related exception occurs
+	 * @exception ClassCastException if the data is not a serialized <code>BitParallelRunAutomaton</code>
+	 * @exception ClassNotFoundException if the class of the serialized object cannot be found
+	 */
+	public static BitParallelRunAutomaton load(InputStream stream) throws IOException, ClassCastException, ClassNotFoundException {
+		ObjectInputStream s = new ObjectInputStream(stream);
+		return (BitParallelRunAutomaton) s.readObject();
+	}
+
+	/**
+	 * Writes this <code>BitParallelRunAutomaton</code> to the given stream.
+	 * @param stream output stream for serialized automaton
+	 * @exception IOException if input/output related exception occurs
+	 */
+	public void store(OutputStream stream) throws IOException {
+		ObjectOutputStream s = new ObjectOutputStream(stream);
+		s.writeObject(this);
+		s.flush();
+	}
+}
@@ -0,0 +1,189 @@
+package dk.brics.automaton;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A tool that performs match operations on a given byte sequence using
+ * a compiled byte automaton.
+ *
+ * <p>This is the byte counterpart of {@link AutomatonMatcher}: {@link #find()}
+ * finds the leftmost of the longest matches in the same way, and the offsets
+ * are indexes into the underlying byte array or buffer.
+ *
+ * @see ByteRunAutomaton#newMatcher(byte[], int, int)
+ * @see ByteRunAutomaton#newMatcher(ByteBuffer)
+ */
+public class ByteAutomatonMatcher {
+
+	ByteAutomatonMatcher(final ByteRunAutomaton automaton, final byte[] array, final ByteBuffer buffer, final int from, final int to) {
+		this.automaton = automaton;
+		this.array = array;
+		this.buffer = buffer;
+		this.from = from;
+		this.to = to;
+	}
+
+	private final ByteRunAutomaton automaton;
+	private final byte[] array; // the input, or null if reading from buffer
+	private final ByteBuffer buffer;
+	private final int from;
+	private final int to;
+
+	private int matchStart = -1;
+
+	private int matchEnd = -1;
+
+	private int[] candidates; // candidate match starts, reused by find()
+
+	private CandidateRuns runs; // runs from the candidates, allocated on first use
+
+	private int byteAt(final int i) {
+		return (array != null ? array[i] : buffer.get(i)) & 0xff;
+	}
+
+	/**
+	 * Find the next matching subsequence of the input.
+	 * <br>
+	 * This also updates the values for the {@code start} and {@code end}
+	 * methods.
+	 *
+	 * @return {@code true} if there is a matching subsequence.
+	 * @see AutomatonMatcher#find()
+	 */
+	public boolean find() {
+		int begin;
+		switch (matchStart) {
+			case -2:
+				return false;
+			case -1:
+				begin = from;
+				break;
+			default:
+				begin = matchEnd;
+				// the previous match was empty
+				if (begin == matchStart) {
+					begin += 1;
+					if (begin > to) {
+						matchStart = matchEnd = -2;
+						return false;
+					}
+				}
+		}
+
+		RunAutomaton a = automaton.automaton;
+		int match_start = -1;
+		int match_end = -1;
+		if (a.isAccept(a.initial)) {
+			match_start = begin;
+			match_end = longestMatchEnd(begin);
+		} else {
+			int end = earliestMatchEnd(begin);
+			if (end != -1) {
+				RunAutomaton reverse = a.getPrefixReverseAutomaton();
+				int[] classes = automaton.getPrefixReverseClasses();
+				int n = 0;
+				int p = reverse.initial;
+				for (int i = end - 1; i >= begin; i--) {
+					p = reverse.delta(p, classes[byteAt(i)]);
+					if (p == -1)
+						break;
+					if (reverse.isAccept(p)) {
+						if (candidates == null)
+							candidates = new int[16];
+						else if (n == candidates.length)
+							candidates = Arrays.copyOf(candidates, n * 2);
+						candidates[n++] = i;
+					}
+				}
+				if (n > 0) {
+					if (runs == null)
+						runs = new CandidateRuns(a);
+					runs.clear();
+					classes = automaton.classes;
+					int k = n - 1;
+					for (int i = candidates[k]; ; i++) {
+						if (k >= 0 && candidates[k] == i)
+							runs.add(candidates[k--]);
+						if (!runs.accept(i)) {
+							if (runs.matchStart != -1 || k < 0)
+								break;
+							i = candidates[k] - 1;
+							continue;
+						}
+						if (i == to)
+							break;
+						runs.step(classes[byteAt(i)]);
+					}
+					if (runs.matchStart != -1) {
+						match_start = (int) runs.matchStart;
+						match_end = runs.matchEnd == CandidateRuns.TO_END ? to : (int) runs.matchEnd;
+					}
+				}
+			}
+		}
+		matchStart = match_start != -1 ? match_start : -2;
+		matchEnd = match_start != -1 ? match_end : -2;
+		return match_start != -1;
+	}
+
+	private int earliestMatchEnd(final int begin) {
+		RunAutomaton search = automaton.automaton.getSearchAutomaton();
+		int[] classes = automaton.getSearchClasses();
+		int p = search.initial;
+		for (int i = begin; i < to; i++) {
+			p = search.delta(p, classes[byteAt(i)]);
+			if (p == -1)
+				return -1;
+			if (search.isAccept(p))
+				return i + 1;
+		}
+		return -1;
+	}
+
+	private int longestMatchEnd(final int start) {
+		RunAutomaton a = automaton.automaton;
+		int[] classes = automaton.classes;
+		int p = a.initial;
+		int max = a.isAccept(p) ? start : -1;
+		for (int i = start; i < to; i++) {
+			p = a.delta(p, classes[byteAt(i)]);
+			if (p == -1)
+				break;
+			if (a.isAccept(p))
+				max = i + 1;
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the index of the first byte matched.
+	 *
+	 * @return The index of the first byte matched.
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public int start() throws IllegalStateException {
+		matchGood();
+		return matchStart;
+	}
+
+	/**
+	 * Returns the index after the last byte matched.
+	 *
+	 * @return The index after the last byte matched.
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public int end() throws IllegalStateException {
+		matchGood();
+		return matchEnd;
+	}
+
+	/** Helper method to check that the last match attempt was valid. */
+	private void matchGood() throws IllegalStateException {
+		if ((matchStart < 0) || (matchEnd < 0)) {
+			throw new IllegalStateException("There was no available match.");
+		}
+	}
+}
@@ -0,0 +1,400 @@
+package dk.brics.automaton;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Finite-state automaton with fast run operations on encoded bytes.
+ *
+ * <p>The automaton is derived from an <code>Automaton</code> over chars by
+ * expanding every char interval into the byte sequences that encode it, so
+ * input given as <code>byte[]</code> or <code>ByteBuffer</code> can be
+ * matched without decoding it into a <code>String</code> first. In UTF-8 mode
+ * (the default), a byte sequence is accepted if and only if it is well-formed
+ * UTF-8 and its decoding is accepted by the original automaton (surrogate
+ * pairs in the original automaton are matched as 4-byte sequences, and
+ * unpaired surrogates, which have no UTF-8 encoding, never match). In Latin-1
+ * mode, each byte is matched as the char with the same value.
+ *
+ * <p>Bytes are mapped to character classes through a 256-entry table, so the
+ * run and match operations neither decode nor allocate.
+ */
+public class ByteRunAutomaton implements Serializable {
+
+	static final long serialVersionUID = 60001;
+
+	final RunAutomaton automaton; // over chars 0-255 representing bytes
+	final int[] classes; // map from byte value to char class of automaton
+
+	private transient int[] searchClasses; // built on demand, see getSearchClasses
+	private transient int[] prefixReverseClasses; // built on demand, see getPrefixReverseClasses
+
+	/**
+	 * Constructs a new <code>ByteRunAutomaton</code> that matches the UTF-8
+	 * encoding of the strings accepted by the given automaton.
+	 * @param a an automaton
+	 */
+	public ByteRunAutomaton(Automaton a) {
+		this(a, false);
+	}
+
+	/**
+	 * Constructs a new <code>ByteRunAutomaton</code> that matches the strings
+	 * accepted by the given automaton encoded as UTF-8 or Latin-1.
+	 * @param a an automaton
+	 * @param latin1 if true, bytes are decoded as Latin-1 (ISO-8859-1), otherwise as UTF-8
+	 */
+	public ByteRunAutomaton(Automaton a, boolean latin1) {
+		Objects.requireNonNull(a);
+		Automaton b = latin1 ? toLatin1(a) : toUtf8(a);
+		b.minimize();
+		automaton = new RunAutomaton(b, false);
+		classes = getClasses(automaton);
+	}
+
+	/**
+	 * Returns the byte class table of the given automaton over chars 0-255.
+	 */
+	private static int[] getClasses(RunAutomaton a) {
+		int[] classes = new int[256];
+		for (int b = 0; b < 256; b++)
+			classes[b] = a.getCharClass((char)b);
+		return classes;
+	}
+
+	/**
+	 * Returns the byte class table of the search automaton. Built on first use.
+	 */
+	synchronized int[] getSearchClasses() {
+		if (searchClasses == null)
+			searchClasses = getClasses(automaton.getSearchAutomaton());
+		return searchClasses;
+	}
+
+	/**
+	 * Returns the byte class table of the reversed prefix automaton. Built on
+	 * first use.
+	 */
+	synchronized int[] getPrefixReverseClasses() {
+		if (prefixReverseClasses == null)
+			prefixReverseClasses = getClasses(automaton.getPrefixReverseAutomaton());
+		return prefixReverseClasses;
+	}
+
+	/**
+	 * Returns an automaton over chars 0-255 that accepts the UTF-8 encodings
+	 * of the strings accepted by the given automaton.
+	 */
+	static Automaton toUtf8(Automaton a) {
+		a = a.cloneExpandedIfRequired();
+		Set<State> states = a.getStates();
+		Map<State, State> m = new HashMap<State, State>();
+		for (State s : states) {
+			State p = new State();
+			p.accept = s.accept;
+			m.put(s, p);
+		}
+		for (State s : states) {
+			State p = m.get(s);
+			for (Transition t : s.transitions) {
+				State q = m.get(t.to);
+				// chars outside the surrogate area are code points of their own
+				if (t.min < Character.MIN_SURROGATE)
+					addUtf8(p, q, t.min, Math.min(t.max, Character.MIN_SURROGATE - 1));
+				if (t.max > Character.MAX_SURROGATE)
+					addUtf8(p, q, Math.max(t.min, Character.MAX_SURROGATE + 1), t.max);
+				// a high surrogate followed by a low surrogate is a supplementary code point
+				int hmin = Math.max(t.min, Character.MIN_HIGH_SURROGATE);
+				int hmax = Math.min(t.max, Character.MAX_HIGH_SURROGATE);
+				if (hmin <= hmax)
+					for (Transition u : t.to.transitions) {
+						int lmin = Math.max(u.min, Character.MIN_LOW_SURROGATE);
+						int lmax = Math.min(u.max, Character.MAX_LOW_SURROGATE);
+						if (lmin > lmax)
+							continue;
+						State r = m.get(u.to);
+						if (lmin == Character.MIN_LOW_SURROGATE && lmax == Character.MAX_LOW_SURROGATE)
+							addUtf8(p, r, Character.toCodePoint((char)hmin, (char)lmin), Character.toCodePoint((char)hmax, (char)lmax));
+						else
+							for (int h = hmin; h <= hmax; h++)
+								addUtf8(p, r, Character.toCodePoint((char)h, (char)lmin), Character.toCodePoint((char)h, (char)lmax));
+					}
+			}
+		}
+		Automaton b = new Automaton();
+		b.initial = m.get(a.initial);
+		b.deterministic = false;
+		b.removeDeadTransitions();
+		return b;
+	}
+
+	/**
+	 * Adds transitions from <code>p</code> to <code>q</code> for the UTF-8
+	 * encodings of the code points from <code>min</code> to <code>max</code>.
+	 */
+	private static void addUtf8(State p, State q, int min, int max) {
+		if (min <= 0x7f)
+			addUtf8(p, q, min, Math.min(max, 0x7f), 0, 0);
+		if (min <= 0x7ff && max >= 0x80)
+			addUtf8(p, q, Math.max(min, 0x80), Math.min(max, 0x7ff), 1, 0xc0);
+		if (min <= 0xffff && max >= 0x800)
+			addUtf8(p, q, Math.max(min, 0x800), Math.min(max, 0xffff), 2, 0xe0);
+		if (max >= 0x10000)
+			addUtf8(p, q, Math.max(min, 0x10000), max, 3, 0xf0);
+	}
+
+	/**
+	 * Adds transitions from <code>p</code> to <code>q</code> for the byte
+	 * sequences of the given code point interval, where each code point is
+	 * encoded as a byte with the given <code>prefix</code> followed by
+	 * <code>k</code> continuation bytes.
+	 */
+	private static void addUtf8(State p, State q, int min, int max, int k, int prefix) {
+		if (min > max)
+			return;
+		if (k == 0) {
+			p.transitions.add(new Transition((char)(prefix | min), (char)(prefix | max), q));
+			return;
+		}
+		int shift = 6 * k;
+		int mask = (1 << shift) - 1;
+		int hmin = min >> shift;
+		int hmax = max >> shift;
+		if (hmin == hmax) {
+			addUtf8Step(p, q, hmin, hmin, min & mask, max & mask, k, prefix);
+			return;
+		}
+		if ((min & mask) != 0) {
+			addUtf8Step(p, q, hmin, hmin, min & mask, mask, k, prefix);
+			hmin++;
+		}
+		if ((max & mask) != mask) {
+			addUtf8Step(p, q, hmax, hmax, 0, max & mask, k, prefix);
+			hmax--;
+		}
+		if (hmin <= hmax)
+			addUtf8Step(p, q, hmin, hmax, 0, mask, k, prefix);
+	}
+
+	private static void addUtf8Step(State p, State q, int hmin, int hmax, int min, int max, int k, int prefix) {
+		State r = new State();
+		p.transitions.add(new Transition((char)(prefix | hmin), (char)(prefix | hmax), r));
+		addUtf8(r, q, min, max, k - 1, 0x80);
+	}
+
+	/**
+	 * Returns an automaton over chars 0-255 that accepts the strings over
+	 * chars 0-255 that are accepted by the given automaton.
+	 */
+	static Automaton toLatin1(Automaton a) {
+		a = a.cloneExpandedIfRequired();
+		for (State s : a.getStates()) {
+			Set<Transition> st = s.transitions;
+			s.resetTransitions();
+			for (Transition t : st)
+				if (t.min <= 0xff)
+					s.transitions.add(new Transition(t.min, (char)Math.min(t.max, 0xff), t.to));
+		}
+		a.deterministic = false;
+		a.removeDeadTransitions();
+		return a;
+	}
+
+	/**
+	 * Returns the underlying run automaton, which reads each byte as the char
+	 * with the same unsigned value.
+	 */
+	public RunAutomaton getRunAutomaton() {
+		return automaton;
+	}
+
+	/**
+	 * Returns true if the given bytes are accepted by this automaton.
+	 * @param b byte array
+	 * @param off offset of the first byte
+	 * @param len number of bytes
+	 */
+	public boolean run(byte[] b, int off, int len) {
+		RunAutomaton a = automaton;
+		int[] classes = this.classes;
+		int p = a.initial;
+		for (int i = off, l = off + len; i < l; i++) {
+			p = a.delta(p, classes[b[i] & 0xff]);
+			if (p == -1)
+				return false;
+		}
+		return a.isAccept(p);
+	}
+
+	/**
+	 * Returns true if the remaining bytes of the given buffer are accepted by
+	 * this automaton. The position of the buffer is not changed.
+	 */
+	public boolean run(ByteBuffer buf) {
+		if (buf.hasArray())
+			return run(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+		RunAutomaton a = automaton;
+		int[] classes = this.classes;
+		int p = a.initial;
+		for (int i = buf.position(), l = buf.limit(); i < l; i++) {
+			p = a.delta(p, classes[buf.get(i) & 0xff]);
+			if (p == -1)
+				return false;
+		}
+		return a.isAccept(p);
+	}
+
+	/**
+	 * Returns the length of the longest accepted run of the given bytes
+	 * starting at <code>off</code>.
+	 * @param b byte array
+	 * @param off offset of the first byte
+	 * @param len number of bytes that may be read
+	 * @return length of the longest accepted run, -1 if no run is accepted
+	 */
+	public int longestMatch(byte[] b, int off, int len) {
+		RunAutomaton a = automaton;
+		int[] classes = this.classes;
+		int p = a.initial;
+		int max = a.isAccept(p) ? 0 : -1;
+		for (int i = off, l = off + len; i < l; i++) {
+			p = a.delta(p, classes[b[i] & 0xff]);
+			if (p == -1)
+				break;
+			if (a.isAccept(p))
+				max = i + 1 - off;
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the length of the longest accepted run of the remaining bytes
+	 * of the given buffer. The position of the buffer is not changed.
+	 * @return length of the longest accepted run, -1 if no run is accepted
+	 */
+	public int longestMatch(ByteBuffer buf) {
+		if (buf.hasArray())
+			return longestMatch(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+		RunAutomaton a = automaton;
+		int[] classes = this.classes;
+		int p = a.initial;
+		int max = a.isAccept(p) ? 0 : -1;
+		for (int i = buf.position(), l = buf.limit(); i < l; i++) {
+			p = a.delta(p, classes[buf.get(i) & 0xff]);
+			if (p == -1)
+				break;
+			if (a.isAccept(p))
+				max = i + 1 - buf.position();
+		}
+		return max;
+	}
+
+	/**
+	 * Returns true if some subsequence of the given bytes is accepted by this
+	 * automaton. Like {@link MatchOnlyRunAutomaton#matches(CharSequence)}, this
+	 * runs in time linear in the number of bytes.
+	 * @param b byte array
+	 * @param off offset of the first byte
+	 * @param len number of bytes
+	 */
+	public boolean matches(byte[] b, int off, int len) {
+		RunAutomaton a = automaton.getSearchAutomaton();
+		int[] classes = getSearchClasses();
+		int p = a.initial;
+		if (a.isAccept(p))
+			return true;
+		for (int i = off, l = off + len; i < l; i++) {
+			p = a.delta(p, classes[b[i] & 0xff]);
+			if (p == -1)
+				return false;
+			if (a.isAccept(p))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if some subsequence of the remaining bytes of the given
+	 * buffer is accepted by this automaton. The position of the buffer is not
+	 * changed.
+	 */
+	public boolean matches(ByteBuffer buf) {
+		if (buf.hasArray())
+			return matches(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+		RunAutomaton a = automaton.getSearchAutomaton();
+		int[] classes = getSearchClasses();
+		int p = a.initial;
+		if (a.isAccept(p))
+			return true;
+		for (int i = buf.position(), l = buf.limit(); i < l; i++) {
+			p = a.delta(p, classes[buf.get(i) & 0xff]);
+			if (p == -1)
+				return false;
+			if (a.isAccept(p))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a new matcher for the given bytes.
+	 * The offsets reported by the matcher are indexes into <code>b</code>.
+	 * @param b byte array
+	 * @param off offset of the first byte
+	 * @param len number of bytes
+	 * @return a new matcher for the given input
+	 */
+	public ByteAutomatonMatcher newMatcher(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || off + len > b.length)
+			throw new IndexOutOfBoundsException();
+		return new ByteAutomatonMatcher(this, b, null, off, off + len);
+	}
+
+	/**
+	 * Creates a new matcher for the remaining bytes of the given buffer.
+	 * The offsets reported by the matcher are indexes into <code>buf</code>.
+	 * The position of the buffer is not changed.
+	 * @param buf byte buffer
+	 * @return a new matcher for the given input
+	 */
+	public ByteAutomatonMatcher newMatcher(ByteBuffer buf) {
+		return new ByteAutomatonMatcher(this, null, buf, buf.position(), buf.limit());
+	}
+
+	/**
+	 * Retrieves a serialized <code>ByteRunAutomaton</code> from a stream.
+	 * @param stream input stream with serialized automaton
+	 * @exception IOException if input/output related exception occurs
+	 * @exception ClassCastException if the data is not a serialized <code>ByteRunAutomaton</code>
+	 * @exception ClassNotFoundException if the class of the serialized object cannot be found
+	 */
+	public static ByteRunAutomaton load(InputStream stream) throws IOException, ClassCastException, ClassNotFoundException {
+		ObjectInputStream s = new ObjectInputStream(stream);
+		return (ByteRunAutomaton) s.readObject();
+	}
+
+	/**
+	 * Writes this <code>ByteRunAutomaton</code> to the given stream.
+	 * @param stream output stream for serialized automaton
+	 * @exception IOException if input/output related exception occurs
+	 */
+	public void store(OutputStream stream) throws IOException {
+		ObjectOutputStream s = new ObjectOutputStream(stream);
+		s.writeObject(this);
+		s.flush();
+	}
+
+	@Override
+	public String toString() {
+		return automaton.toString();
+	}
+}
@@ -0,0 +1,112 @@
+package dk.brics.automaton;
+
+import java.util.Arrays;
+
+/**
+ * Runs of a {@link RunAutomaton} from several candidate match starts at
+ * once, used by the matchers to find the leftmost of the longest matches
+ * starting at the candidates in a single forward pass.
+ *
+ * <p>The runs are kept in order of their start. A run that reaches a state
+ * that an earlier run is also in is dropped, since the earlier run accepts
+ * everything it would accept from there. So there are never more runs than
+ * states, and each char is read once, however many candidates there are.
+ * Once a run accepts, the later runs are dropped, and the earlier runs are
+ * followed on until they accept, which makes theirs the match, or die.
+ */
+final class CandidateRuns {
+
+	/** Value of {@link #matchEnd} when the match extends to the end of the input. */
+	static final long TO_END = Long.MAX_VALUE;
+
+	final RunAutomaton automaton;
+	final int[] states; // per run, its current state
+	final long[] starts; // per run, its start
+	final int[] seen; // per state, the step in which a run was last in it
+	int step;
+	int count; // number of runs
+	long matchStart; // start of the match found so far, or -1
+	long matchEnd; // end of the match found so far, or -1
+
+	CandidateRuns(RunAutomaton automaton) {
+		this.automaton = automaton;
+		int n = automaton.getSize();
+		states = new int[n];
+		starts = new long[n];
+		seen = new int[n];
+	}
+
+	/**
+	 * Drops all runs and the match found so far.
+	 */
+	void clear() {
+		nextStep();
+		count = 0;
+		matchStart = matchEnd = -1;
+	}
+
+	private void nextStep() {
+		if (step == Integer.MAX_VALUE) {
+			Arrays.fill(seen, 0);
+			step = 0;
+		}
+		step++;
+	}
+
+	/**
+	 * Adds a run from the initial state at the given start, which must be
+	 * after the starts of all runs added since {@link #clear()}. It is not
+	 * added once a match is found, since that match starts earlier.
+	 */
+	void add(long start) {
+		int p = automaton.initial;
+		if (matchStart == -1 && seen[p] != step) {
+			seen[p] = step;
+			states[count] = p;
+			starts[count++] = start;
+		}
+	}
+
+	/**
+	 * Records the match of the first run that is in an accept state, with
+	 * the given end, and drops the runs after it. If that run is the first
+	 * and in a universal state, no run can do better, so the match is taken
+	 * to extend to the end of the input and all runs are dropped. Returns
+	 * true if any runs are left.
+	 */
+	boolean accept(long offset) {
+		for (int k = 0; k < count; k++) {
+			int p = states[k];
+			if (automaton.isAccept(p)) {
+				matchStart = starts[k];
+				if (k == 0 && automaton.isUniversal(p)) {
+					matchEnd = TO_END;
+					count = 0;
+				} else {
+					matchEnd = offset;
+					count = k + 1;
+				}
+				break;
+			}
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Advances all runs by a char of the given character class, dropping
+	 * the runs that die or that reach the state of an earlier run.
+	 */
+	void step(int c) {
+		nextStep();
+		int n = 0;
+		for (int k = 0; k < count; k++) {
+			int p = automaton.delta(states[k], c);
+			if (p != -1 && seen[p] != step) {
+				seen[p] = step;
+				states[n] = p;
+				starts[n++] = starts[k];
+			}
+		}
+		count = n;
+	}
+}
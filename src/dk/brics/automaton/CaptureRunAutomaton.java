@@ -0,0 +1,334 @@
+package dk.brics.automaton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link RunAutomaton} for a regular expression that also reports the
+ * substrings matched by its capturing groups.
+ *
+ * <p>The matchers of this automaton find matches with the deterministic
+ * automaton as usual. The offsets of the groups of a match are found on
+ * first use, in one pass over the match with a tagged nondeterministic
+ * automaton: the regular expression compiled to an automaton whose
+ * transitions can carry tags that record the current offset as the start or
+ * end of a group. All paths through it are followed in lockstep, in order of
+ * priority, so the pass takes time linear in the length of the match times
+ * the size of the expression, and never backtracks.
+ *
+ * <p>Of the ways the expression can match exactly the chars of the match,
+ * the one reported is the first in the leftmost-greedy order of Perl-style
+ * backtracking matchers: the left operand of a union before the right one,
+ * and another repetition before leaving a repetition. A group that is repeated reports its last
+ * repetition, a group that takes no part in that way of matching reports -1,
+ * and offsets set on ways that were given up are not kept. Groups inside a
+ * complement, an intersection, a named automaton or a numerical interval
+ * are matched as part of the enclosing automaton, so they always report -1.
+ *
+ * <p>For most expressions, this reports the same groups as
+ * <code>java.util.regex</code>, but not always:
+ * <ul>
+ * <li>A group inside a repeated group reports the last repetition of the
+ *     enclosing group that sets it, where <code>java.util.regex</code> may
+ *     report an earlier one: <code>(b(a)*)*</code> on "bbaba" gives 4-5 for
+ *     group 2 here, and 2-3 there.
+ * <li>Offsets set on a way of matching that was given up are not kept,
+ *     where <code>java.util.regex</code> may keep them after backtracking:
+ *     <code>((b))*b</code> on "b" gives -1 for group 2 here, and 0-1 there.
+ * <li>A repetition does not end with an empty repetition after a nonempty
+ *     one: <code>(a*)+</code> on "aa" gives 0-2 for group 1 here, and 2-2
+ *     there, and likewise for nested repetitions such as
+ *     <code>(b)?(((a|a))*)*</code>.
+ * </ul>
+ *
+ * @see RegExp
+ */
+public class CaptureRunAutomaton extends RunAutomaton {
+
+	static final long serialVersionUID = 160001;
+
+	final int groups; // number of capturing groups
+	final int startNode; // initial node of the tagged automaton
+	final int acceptNode; // accept node of the tagged automaton
+	final int[] tags; // per node, the tag set when entering it, or -1
+	final int[][] moves; // per node, transitions as (min, max, target) triples
+	final int[][] eps; // per node, empty transitions in order of priority
+	final int stackSize; // stack size that suffices for following empty transitions
+
+	/**
+	 * Constructs a new <code>CaptureRunAutomaton</code> from a regular expression.
+	 * @param r a regular expression
+	 */
+	public CaptureRunAutomaton(RegExp r) {
+		this(r, null);
+	}
+
+	/**
+	 * Constructs a new <code>CaptureRunAutomaton</code> from a regular expression.
+	 * @param r a regular expression
+	 * @param automata a map from automaton identifiers to automata, may be null
+	 * @exception IllegalArgumentException if the expression refers to an automaton not in the map
+	 */
+	public CaptureRunAutomaton(RegExp r, Map<String, Automaton> automata) throws IllegalArgumentException {
+		super(r.toAutomaton(automata));
+		Builder b = new Builder(automata);
+		groups = r.groups;
+		acceptNode = b.node(null, null, -1);
+		startNode = b.compile(r, acceptNode);
+		int n = b.moves.size();
+		tags = new int[n];
+		moves = new int[n][];
+		eps = new int[n][];
+		int size = 1 + 2 * n;
+		for (int i = 0; i < n; i++) {
+			tags[i] = b.tags.get(i);
+			moves[i] = b.moves.get(i);
+			eps[i] = b.eps.get(i);
+			size += eps[i].length;
+		}
+		stackSize = size;
+	}
+
+	/**
+	 * Returns the number of capturing groups of the regular expression.
+	 */
+	public int getGroupCount() {
+		return groups;
+	}
+
+	/**
+	 * Arrays for finding the offsets of groups, so that they can be reused
+	 * from match to match.
+	 */
+	static final class Workspace {
+
+		final int[] seen; // per node, the step in which it was last reached
+		int step;
+		final int[] nodes, nextNodes; // the nodes of the threads
+		final int[] offsets, nextOffsets; // the tags of the threads
+		final int[] stack;
+		final int[] current;
+
+		Workspace(CaptureRunAutomaton a) {
+			int n = a.tags.length;
+			int w = 2 * a.groups;
+			seen = new int[n];
+			nodes = new int[n];
+			nextNodes = new int[n];
+			offsets = new int[n * w];
+			nextOffsets = new int[n * w];
+			stack = new int[a.stackSize];
+			current = new int[w];
+		}
+	}
+
+	/**
+	 * Stores the offsets of the groups when the given chars are matched in
+	 * <code>result</code>, as start and end offset of each group from group
+	 * 1 on, or -1 for groups that take no part in the match. The chars must
+	 * be accepted by this automaton.
+	 */
+	void captures(CharSequence s, int start, int end, Workspace ws, int[] result) {
+		int w = 2 * groups;
+		int[] seen = ws.seen;
+		int[] nodes = ws.nodes;
+		int[] offsets = ws.offsets;
+		int[] nextNodes = ws.nextNodes;
+		int[] nextOffsets = ws.nextOffsets;
+		int[] stack = ws.stack;
+		int[] current = ws.current;
+		Arrays.fill(current, -1);
+		if (ws.step > Integer.MAX_VALUE - (end - start) - 1) {
+			Arrays.fill(seen, 0);
+			ws.step = 0;
+		}
+		int step = ++ws.step;
+		int count = close(startNode, start, current, nodes, offsets, 0, seen, step, stack);
+		for (int i = start; i < end && count > 0; i++) {
+			char c = s.charAt(i);
+			step++;
+			int next = 0;
+			// the threads are in order of priority, and each node is taken by
+			// the first thread that reaches it
+			for (int t = 0; t < count; t++) {
+				int[] m = moves[nodes[t]];
+				for (int k = 0; k < m.length; k += 3)
+					if (c >= m[k] && c <= m[k + 1]) {
+						System.arraycopy(offsets, t * w, current, 0, w);
+						next = close(m[k + 2], i + 1, current, nextNodes, nextOffsets, next, seen, step, stack);
+					}
+			}
+			int[] tmp = nodes;
+			nodes = nextNodes;
+			nextNodes = tmp;
+			tmp = offsets;
+			offsets = nextOffsets;
+			nextOffsets = tmp;
+			count = next;
+		}
+		ws.step = step;
+		Arrays.fill(result, -1);
+		for (int t = 0; t < count; t++)
+			if (nodes[t] == acceptNode) {
+				System.arraycopy(offsets, t * w, result, 0, w);
+				break;
+			}
+	}
+
+	/**
+	 * Adds a thread for each node reachable by empty transitions from the
+	 * given node that has transitions or accepts, in order of priority, with
+	 * the tags set on the way. Returns the new number of threads.
+	 */
+	private int close(int node, int offset, int[] current, int[] nodes, int[] offsets, int count, int[] seen, int step, int[] stack) {
+		int w = current.length;
+		int sp = 0;
+		stack[sp++] = node;
+		while (sp > 0) {
+			int p = stack[--sp];
+			if (p < 0) {
+				// leaving the nodes reached after setting a tag, so restore it
+				current[-p - 1] = stack[--sp];
+				continue;
+			}
+			if (seen[p] == step)
+				continue;
+			seen[p] = step;
+			int t = tags[p];
+			if (t != -1) {
+				stack[sp++] = current[t];
+				stack[sp++] = -t - 1;
+				current[t] = offset;
+			}
+			if (moves[p].length > 0 || p == acceptNode) {
+				nodes[count] = p;
+				System.arraycopy(current, 0, offsets, count * w, w);
+				count++;
+			}
+			int[] e = eps[p];
+			for (int k = e.length - 1; k >= 0; k--)
+				stack[sp++] = e[k];
+		}
+		return count;
+	}
+
+	/**
+	 * Compiles a regular expression to a tagged automaton, backwards from the
+	 * node that follows it.
+	 */
+	private static class Builder {
+
+		static final int[] NONE = new int[0];
+
+		final Map<String, Automaton> automata;
+		final List<Integer> tags = new ArrayList<Integer>();
+		final List<int[]> moves = new ArrayList<int[]>();
+		final List<int[]> eps = new ArrayList<int[]>();
+
+		Builder(Map<String, Automaton> automata) {
+			this.automata = automata;
+		}
+
+		int node(int[] m, int[] e, int tag) {
+			tags.add(tag);
+			moves.add(m == null ? NONE : m);
+			eps.add(e == null ? NONE : e);
+			return tags.size() - 1;
+		}
+
+		int move(int min, int max, int out) {
+			return node(new int[] {min, max, out}, null, -1);
+		}
+
+		int split(int first, int second) {
+			return node(null, new int[] {first, second}, -1);
+		}
+
+		int star(RegExp r, int out) {
+			int loop = node(null, null, -1);
+			eps.set(loop, new int[] {compile(r, loop), out});
+			return loop;
+		}
+
+		/**
+		 * Returns the node that starts a match of <code>r</code> followed by
+		 * the node <code>out</code>.
+		 */
+		int compile(RegExp r, int out) {
+			int p;
+			switch (r.kind) {
+			case REGEXP_UNION:
+				return split(compile(r.exp1, out), compile(r.exp2, out));
+			case REGEXP_CONCATENATION:
+				return compile(r.exp1, compile(r.exp2, out));
+			case REGEXP_OPTIONAL:
+				return split(compile(r.exp1, out), out);
+			case REGEXP_REPEAT:
+				return star(r.exp1, out);
+			case REGEXP_REPEAT_MIN:
+				p = star(r.exp1, out);
+				for (int i = 0; i < r.min; i++)
+					p = compile(r.exp1, p);
+				return p;
+			case REGEXP_REPEAT_MINMAX:
+				if (r.min > r.max)
+					return node(null, null, -1);
+				p = out;
+				for (int i = r.min; i < r.max; i++)
+					p = split(compile(r.exp1, p), out);
+				for (int i = 0; i < r.min; i++)
+					p = compile(r.exp1, p);
+				return p;
+			case REGEXP_CHAR:
+				return move(r.c, r.c, out);
+			case REGEXP_CHAR_RANGE:
+				return move(r.from, r.to, out);
+			case REGEXP_ANYCHAR:
+				return move(Character.MIN_VALUE, Character.MAX_VALUE, out);
+			case REGEXP_EMPTY:
+				return node(null, null, -1);
+			case REGEXP_STRING:
+				p = out;
+				for (int i = r.s.length() - 1; i >= 0; i--)
+					p = move(r.s.charAt(i), r.s.charAt(i), p);
+				return p;
+			case REGEXP_ANYSTRING:
+				p = node(null, new int[] {out}, -1);
+				moves.set(p, new int[] {Character.MIN_VALUE, Character.MAX_VALUE, p});
+				return p;
+			case REGEXP_GROUP:
+				int tag = 2 * (r.group - 1);
+				return node(null, new int[] {compile(r.exp1, node(null, new int[] {out}, tag + 1))}, tag);
+			default:
+				// complement, intersection, named automata and intervals are
+				// matched with their deterministic automaton
+				return embed(r.toAutomaton(automata), out);
+			}
+		}
+
+		/**
+		 * Adds the states of the given automaton as nodes, with empty
+		 * transitions from its accept states to <code>out</code>.
+		 */
+		int embed(Automaton a, int out) {
+			a.determinize();
+			Map<State, Integer> nodes = new HashMap<State, Integer>();
+			for (State s : a.getStates())
+				nodes.put(s, node(null, s.accept ? new int[] {out} : null, -1));
+			for (State s : a.getStates()) {
+				int[] m = new int[3 * s.transitions.size()];
+				int k = 0;
+				for (Transition t : s.transitions) {
+					m[k++] = t.min;
+					m[k++] = t.max;
+					m[k++] = nodes.get(t.to);
+				}
+				moves.set(nodes.get(s), m);
+			}
+			return nodes.get(a.getInitialState());
+		}
+	}
+}
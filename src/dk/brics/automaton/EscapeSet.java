@@ -0,0 +1,81 @@
+package dk.brics.automaton;
+
+import java.io.Serializable;
+
+/**
+ * The chars that leave a state of a {@link RunAutomaton}, used to skip input
+ * on which the automaton stays in that state.
+ *
+ * <p>In the initial state of a search automaton, most chars loop back to
+ * the initial state, and only the chars that can begin a match escape it.
+ * If a single char escapes, the input is searched for it with
+ * {@link String#indexOf(int, int)}, which is compiled to vector
+ * instructions on current JVMs. Otherwise the input is scanned with a
+ * lookup table, which is still cheaper than a step of the automaton.
+ */
+final class EscapeSet implements Serializable {
+
+	static final long serialVersionUID = 120001;
+
+	/** Most chars below 256 that may escape for the skip to be worthwhile. */
+	static final int MAX_ESCAPES = 128;
+
+	final int single; // the only escaping char, or -1 if there are more or none
+	final boolean[] table; // per char below 256, whether it escapes
+	final char[] points; // the char intervals of the automaton
+	final boolean[] escapes; // per interval, whether it escapes
+
+	private EscapeSet(int single, boolean[] table, char[] points, boolean[] escapes) {
+		this.single = single;
+		this.table = table;
+		this.points = points;
+		this.escapes = escapes;
+	}
+
+	/**
+	 * Returns the chars that lead from the given state of the given automaton
+	 * to another state, or null if too many of them do.
+	 */
+	static EscapeSet of(RunAutomaton a, int state) {
+		char[] points = a.getCharIntervals();
+		boolean[] escapes = new boolean[points.length];
+		int single = -1;
+		int count = 0; // number of escaping chars, counted up to 2
+		for (int k = 0; k < points.length; k++)
+			if (a.step(state, points[k]) != state) {
+				escapes[k] = true;
+				int max = k + 1 < points.length ? points[k + 1] - 1 : Character.MAX_VALUE;
+				count += max == points[k] ? 1 : 2;
+				single = points[k];
+			}
+		boolean[] table = new boolean[256];
+		int n = 0;
+		for (int c = 0; c < table.length; c++)
+			if (escapes[SpecialOperations.findIndex((char)c, points)]) {
+				table[c] = true;
+				n++;
+			}
+		if (n > MAX_ESCAPES)
+			return null;
+		return new EscapeSet(count == 1 ? single : -1, table, points, escapes);
+	}
+
+	/**
+	 * Returns the index of the first escaping char in the given string
+	 * between <code>from</code> and <code>to</code>, or <code>to</code> if
+	 * there is none.
+	 */
+	int next(CharSequence s, int from, int to) {
+		if (single != -1 && s instanceof String) {
+			int i = ((String)s).indexOf(single, from);
+			return i == -1 || i > to ? to : i;
+		}
+		boolean[] table = this.table;
+		for (int i = from; i < to; i++) {
+			char c = s.charAt(i);
+			if (c < 256 ? table[c] : escapes[SpecialOperations.findIndex(c, points)])
+				return i;
+		}
+		return to;
+	}
+}
@@ -0,0 +1,235 @@
+package dk.brics.automaton;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the lines of files that match a {@link ByteRunAutomaton}, like
+ * <code>grep</code>.
+ *
+ * <p>Files are memory-mapped with {@link FileChannel#map} in chunks of at
+ * most 1 GB, and the bytes are run through the byte automaton, so lines are
+ * neither decoded nor copied into strings. The state of the automaton is
+ * kept from one chunk to the next, so lines may span chunks. Lines end with
+ * <code>'\n'</code>, which is not part of the line; a <code>'\r'</code>
+ * before it is. Bytes on which the automaton stays in its initial state are
+ * skipped with a lookup table, and once a line is decided, the rest of it is
+ * skipped without running the automaton.
+ *
+ * <p>A line matches if some part of it is accepted by the automaton, or, for
+ * a scanner of whole lines, if the whole line is. Lines are numbered from 1
+ * and their offsets are byte offsets into the file.
+ */
+public class FileScanner {
+
+	/**
+	 * Receives the matching lines of a scan.
+	 */
+	public interface LineHandler {
+
+		/**
+		 * Called for each matching line, in order within each file. When
+		 * several files are scanned in parallel, this is called from several
+		 * threads at once.
+		 * @param file the file
+		 * @param line number of the line, from 1
+		 * @param start byte offset of the first byte of the line
+		 * @param end byte offset after the last byte of the line, not counting the <code>'\n'</code>
+		 */
+		void matched(Path file, long line, long start, long end);
+	}
+
+	/** Most bytes mapped at a time. */
+	static final int CHUNK = 1 << 30;
+
+	/** Number of bytes copied from the mapped buffer at a time. */
+	static final int BLOCK = 1 << 14;
+
+	private final ByteRunAutomaton automaton;
+	private final boolean wholeLine; // true if the line must be accepted as a whole
+	private final int chunk; // most bytes mapped at a time
+
+	/**
+	 * Constructs a new scanner that finds the lines that contain a match of
+	 * the given automaton.
+	 * @param automaton the automaton
+	 */
+	public FileScanner(ByteRunAutomaton automaton) {
+		this(automaton, false);
+	}
+
+	/**
+	 * Constructs a new scanner.
+	 * @param automaton the automaton
+	 * @param wholeLine if true, a line matches only if the whole line is accepted by the automaton,
+	 *                  otherwise if some part of it is
+	 */
+	public FileScanner(ByteRunAutomaton automaton, boolean wholeLine) {
+		this(automaton, wholeLine, CHUNK);
+	}
+
+	FileScanner(ByteRunAutomaton automaton, boolean wholeLine, int chunk) {
+		this.automaton = automaton;
+		this.wholeLine = wholeLine;
+		this.chunk = chunk;
+	}
+
+	/**
+	 * Scans the given file.
+	 * @param file the file
+	 * @param handler receives the matching lines, may be null
+	 * @return number of matching lines
+	 * @exception IOException if input/output related exception occurs
+	 */
+	public long scan(Path file, LineHandler handler) throws IOException {
+		RunAutomaton a = wholeLine ? automaton.automaton : automaton.automaton.getSearchAutomaton();
+		int[] classes = wholeLine ? automaton.classes : automaton.getSearchClasses();
+		int initial = a.initial;
+		// the bytes other than '\n' on which the automaton stays in its initial state
+		boolean[] stay = new boolean[256];
+		for (int b = 0; b < 256; b++)
+			stay[b] = b != '\n' && a.delta(initial, classes[b]) == initial;
+		// in search mode, an automaton accepting the empty string matches every line
+		boolean matchedAtStart = !wholeLine && a.isAccept(initial);
+		long count = 0;
+		long line = 1;
+		long lineStart = 0;
+		int p = initial;
+		boolean decided = matchedAtStart; // true if the rest of the line is skipped
+		boolean matched = matchedAtStart;
+		byte[] block = new byte[BLOCK];
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = ch.size();
+			for (long base = 0; base < size; base += chunk) {
+				MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(chunk, size - base));
+				// the mapped bytes are copied in blocks, which is cheaper than reading them one by one
+				while (buf.hasRemaining()) {
+					long offset = base + buf.position();
+					int n = Math.min(block.length, buf.remaining());
+					buf.get(block, 0, n);
+					for (int i = 0; i < n; i++) {
+						if (decided) {
+							while (i < n && block[i] != '\n')
+								i++;
+							if (i == n)
+								break;
+						} else if (p == initial) {
+							while (i < n && stay[block[i] & 0xff])
+								i++;
+							if (i == n)
+								break;
+						}
+						int b = block[i];
+						if (b == '\n') {
+							if (matched || (wholeLine && p != -1 && a.isAccept(p))) {
+								count++;
+								if (handler != null)
+									handler.matched(file, line, lineStart, offset + i);
+							}
+							line++;
+							lineStart = offset + i + 1;
+							p = initial;
+							decided = matched = matchedAtStart;
+						} else {
+							p = a.delta(p, classes[b & 0xff]);
+							if (p == -1)
+								decided = true;
+							else if (a.isUniversal(p) || (!wholeLine && a.isAccept(p)))
+								decided = matched = true;
+						}
+					}
+				}
+			}
+			// the last line, if the file does not end with '\n'
+			if (lineStart < size && (matched || (wholeLine && p != -1 && a.isAccept(p)))) {
+				count++;
+				if (handler != null)
+					handler.matched(file, line, lineStart, size);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Scans the given files in parallel in the common fork-join pool.
+	 * @param files the files
+	 * @param handler receives the matching lines, called from several threads at once, may be null
+	 * @return number of matching lines in all files
+	 * @exception IOException if input/output related exception occurs
+	 */
+	public long scan(List<Path> files, LineHandler handler) throws IOException {
+		List<RecursiveTask<Long>> tasks = new ArrayList<RecursiveTask<Long>>();
+		for (final Path file : files)
+			tasks.add(new RecursiveTask<Long>() {
+				@Override
+				protected Long compute() {
+					try {
+						return scan(file, handler);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+		long count = 0;
+		try {
+			for (RecursiveTask<Long> t : ForkJoinTask.invokeAll(tasks))
+				count += t.join();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return count;
+	}
+
+	/**
+	 * Prints the lines of the given files that match a regular expression,
+	 * each preceded by its file name and line number.
+	 * <p>
+	 * Usage: <code>java dk.brics.automaton.FileScanner [-x] regexp file...</code>
+	 * <br>
+	 * With <code>-x</code>, only lines that match as a whole are printed.
+	 * Files are read as UTF-8 and scanned in parallel.
+	 */
+	public static void main(String[] args) throws IOException {
+		int k = 0;
+		boolean wholeLine = args.length > 0 && args[0].equals("-x");
+		if (wholeLine)
+			k++;
+		if (args.length < k + 2) {
+			System.err.println("Usage: java dk.brics.automaton.FileScanner [-x] regexp file...");
+			System.exit(2);
+		}
+		ByteRunAutomaton a = new ByteRunAutomaton(new RegExp(args[k]).toAutomaton());
+		List<Path> files = new ArrayList<Path>();
+		for (int i = k + 1; i < args.length; i++)
+			files.add(Paths.get(args[i]));
+		final PrintStream out = System.out;
+		long count = new FileScanner(a, wholeLine).scan(files, new LineHandler() {
+			public void matched(Path file, long line, long start, long end) {
+				ByteBuffer b = ByteBuffer.allocate((int)Math.min(end - start, Integer.MAX_VALUE));
+				try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+					while (b.hasRemaining() && ch.read(b, start + b.position()) != -1)
+						;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				String text = new String(b.array(), 0, b.position(), StandardCharsets.UTF_8);
+				synchronized (out) {
+					out.println(file + ":" + line + ":" + text);
+				}
+			}
+		});
+		System.exit(count > 0 ? 0 : 1);
+	}
+}
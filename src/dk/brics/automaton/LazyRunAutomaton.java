@@ -0,0 +1,413 @@
+package dk.brics.automaton;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finite-state automaton that is determinized lazily while running.
+ *
+ * <p>Unlike {@link RunAutomaton}, the given automaton is not determinized up
+ * front. A deterministic state, which is a set of states of the given
+ * automaton, is only built when the input reaches it. The states built so far
+ * are kept in a cache that is limited to a given number of bytes; when it is
+ * full, it is flushed and rebuilt from the current state. If a single run
+ * keeps flushing the cache, the rest of the run falls back to simulating the
+ * nondeterministic automaton directly.
+ *
+ * <p>This avoids the exponential blowup of determinization for automata such
+ * as <code>(a|b)*a(a|b){20}</code>, as long as they are built without
+ * minimization, for example with {@link RegExp#toAutomaton(boolean)}.
+ *
+ * <p>The <code>run</code> and <code>matches</code> methods may be called
+ * concurrently from several threads. The cache can be read without locking,
+ * and only building new states is synchronized.
+ */
+public class LazyRunAutomaton implements Serializable {
+
+	static final long serialVersionUID = 80001;
+
+	/** Default limit on the memory used by each state cache, in bytes. */
+	public static final int DEFAULT_CACHE_SIZE = 1 << 22;
+
+	/** A run falls back to simulation if it reads fewer chars than this per state before a second flush. */
+	static final int MIN_CHARS_PER_STATE = 10;
+
+	/** Transition table entry for a transition that has not been built yet. */
+	static final int UNKNOWN = 0;
+
+	/** Transition table entry for a transition to the empty state set. */
+	static final int DEAD = 1;
+
+	final int cacheSize;
+	final int initial;
+	final boolean[] accept;
+	final char[] points;
+	final int[] classmap; // char class of each char below 256
+	final int[] first; // per state, the index of its first transition in min, max and to
+	final int[] min; // per transition, its first char class
+	final int[] max; // per transition, its last char class
+	final int[] to; // per transition, its target state
+
+	transient volatile Cache anchored; // built on demand, see getCache
+	transient volatile Cache search; // built on demand, see getCache
+	transient int[] mark; // scratch space for building state sets, guarded by this
+	transient int stamp;
+
+	/**
+	 * Constructs a new <code>LazyRunAutomaton</code> with the default cache size.
+	 * @param a an automaton
+	 */
+	public LazyRunAutomaton(Automaton a) {
+		this(a, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructs a new <code>LazyRunAutomaton</code>.
+	 * @param a an automaton, which is not determinized
+	 * @param cacheSize limit on the memory used by each state cache, in bytes
+	 */
+	public LazyRunAutomaton(Automaton a, int cacheSize) {
+		this.cacheSize = cacheSize;
+		a = a.cloneExpanded();
+		points = a.getStartPoints();
+		Set<State> states = a.getStates();
+		Automaton.setStateNumbers(states);
+		initial = a.initial.number;
+		accept = new boolean[states.size()];
+		State[] numbered = new State[states.size()];
+		int n = 0;
+		for (State s : states) {
+			numbered[s.number] = s;
+			n += s.transitions.size();
+		}
+		first = new int[numbered.length + 1];
+		min = new int[n];
+		max = new int[n];
+		to = new int[n];
+		n = 0;
+		for (State s : numbered) {
+			accept[s.number] = s.accept;
+			first[s.number] = n;
+			for (Transition t : s.transitions) {
+				min[n] = SpecialOperations.findIndex(t.min, points);
+				max[n] = SpecialOperations.findIndex(t.max, points);
+				to[n++] = t.to.number;
+			}
+		}
+		first[numbered.length] = n;
+		classmap = new int[256];
+		for (int c = 0; c < classmap.length; c++)
+			classmap[c] = SpecialOperations.findIndex((char)c, points);
+	}
+
+	/**
+	 * Returns the number of states of the automaton, before determinization.
+	 */
+	public int getSize() {
+		return accept.length;
+	}
+
+	/**
+	 * Returns the number of deterministic states built so far and held in
+	 * the caches.
+	 */
+	public int getCachedStates() {
+		Cache a = anchored, s = search;
+		synchronized (this) {
+			return (a != null ? a.size : 0) + (s != null ? s.size : 0);
+		}
+	}
+
+	/**
+	 * Returns true if the given string is accepted by this automaton.
+	 */
+	public boolean run(CharSequence s) {
+		return scan(s, 0, false) == s.length();
+	}
+
+	/**
+	 * Returns the length of the longest accepted run of the given string
+	 * starting at the given offset.
+	 * @param s the string
+	 * @param offset offset into <code>s</code> where the run starts
+	 * @return length of the longest accepted run, -1 if no run is accepted
+	 */
+	public int run(CharSequence s, int offset) {
+		int end = scan(s, offset, false);
+		return end == -1 ? -1 : end - offset;
+	}
+
+	/**
+	 * Returns true if some substring of the given string is accepted by this
+	 * automaton. The scan stops at the end of the first match.
+	 */
+	public boolean matches(CharSequence s) {
+		return scan(s, 0, true) != -1;
+	}
+
+	private int charClass(char c) {
+		return c < 256 ? classmap[c] : SpecialOperations.findIndex(c, points);
+	}
+
+	/**
+	 * Runs on the given string from the given offset. In search mode, returns
+	 * the end of the first match found, otherwise the end of the longest match.
+	 * Returns -1 if there is no match.
+	 */
+	private int scan(CharSequence s, int offset, boolean searching) {
+		Cache c = getCache(searching);
+		int classes = points.length;
+		int l = s.length();
+		int v = c.initial;
+		int match = (v & 1) != 0 ? offset : -1;
+		if (searching && match != -1)
+			return match;
+		int flushedAt = -1;
+		for (int i = offset; i < l; i++) {
+			int k = charClass(s.charAt(i));
+			int w = c.table[((v - 2) >> 1) + k];
+			if (w == UNKNOWN) {
+				Cache d;
+				synchronized (this) {
+					w = step(c, v, k, searching);
+					// the new transition may have flushed or grown the cache
+					d = searching ? search : anchored;
+					if (d.resets != c.resets) {
+						if (flushedAt != -1 && i - flushedAt < MIN_CHARS_PER_STATE * c.size) {
+							if (w == DEAD)
+								return match;
+							int[] set = d.sets[((w - 2) >> 1) / classes];
+							return simulate(set, s, i + 1, searching, (w & 1) != 0 ? i + 1 : match);
+						}
+						flushedAt = i;
+					}
+				}
+				c = d;
+			}
+			if (w == DEAD)
+				return match;
+			v = w;
+			if ((v & 1) != 0) {
+				match = i + 1;
+				if (searching)
+					return match;
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Builds the transition from state <code>v</code> of cache <code>c</code>
+	 * on char class <code>k</code>, and returns the target as an entry of the
+	 * current cache, which may be replaced by a grown or flushed one. Must be
+	 * called while holding the lock.
+	 */
+	private int step(Cache c, int v, int k, boolean searching) {
+		Cache d = searching ? search : anchored;
+		int classes = points.length;
+		int[] from = c.sets[((v - 2) >> 1) / classes];
+		if (mark == null)
+			mark = new int[accept.length];
+		if (++stamp == 0) {
+			Arrays.fill(mark, 0);
+			stamp = 1;
+		}
+		int[] buf = new int[8];
+		int n = 0;
+		if (searching) {
+			mark[initial] = stamp;
+			buf[n++] = initial;
+		}
+		for (int p : from)
+			for (int t = first[p]; t < first[p + 1]; t++)
+				if (min[t] <= k && k <= max[t] && mark[to[t]] != stamp) {
+					mark[to[t]] = stamp;
+					if (n == buf.length)
+						buf = Arrays.copyOf(buf, n * 2);
+					buf[n++] = to[t];
+				}
+		int w;
+		if (n == 0)
+			w = DEAD;
+		else {
+			int[] set = Arrays.copyOf(buf, n);
+			Arrays.sort(set);
+			w = d.get(set);
+			if (w == UNKNOWN) {
+				Cache e = d;
+				if (d.bytes + Cache.cost(set, classes) > cacheSize)
+					e = new Cache(this, d.resets + 1);
+				else if (d.size == d.sets.length)
+					e = d.grow(classes);
+				if (e != d) {
+					if (searching)
+						search = e;
+					else
+						anchored = e;
+					d = e;
+				}
+				w = d.add(set, this);
+			}
+		}
+		if (c.resets == d.resets)
+			d.table[((v - 2) >> 1) + k] = w;
+		return w;
+	}
+
+	/**
+	 * Simulates the automaton from the given state set on the rest of the
+	 * input, for when the cache thrashes.
+	 */
+	private int simulate(int[] set, CharSequence s, int offset, boolean searching, int match) {
+		if (searching && match != -1)
+			return match;
+		int[] mark = new int[accept.length];
+		int[] current = Arrays.copyOf(set, accept.length);
+		int n = set.length;
+		int[] next = new int[accept.length];
+		for (int i = offset, stamp = 1; i < s.length() && n > 0; i++, stamp++) {
+			int k = charClass(s.charAt(i));
+			int m = 0;
+			if (searching) {
+				mark[initial] = stamp;
+				next[m++] = initial;
+			}
+			boolean accepts = false;
+			for (int j = 0; j < n; j++) {
+				int p = current[j];
+				for (int t = first[p]; t < first[p + 1]; t++)
+					if (min[t] <= k && k <= max[t] && mark[to[t]] != stamp) {
+						mark[to[t]] = stamp;
+						next[m++] = to[t];
+						accepts |= accept[to[t]];
+					}
+			}
+			if (accepts) {
+				match = i + 1;
+				if (searching)
+					return match;
+			}
+			int[] tmp = current;
+			current = next;
+			next = tmp;
+			n = m;
+		}
+		return match;
+	}
+
+	private Cache getCache(boolean searching) {
+		Cache c = searching ? search : anchored;
+		if (c == null) {
+			synchronized (this) {
+				c = searching ? search : anchored;
+				if (c == null) {
+					c = new Cache(this, 0);
+					if (searching)
+						search = c;
+					else
+						anchored = c;
+				}
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Retrieves a serialized <code>LazyRunAutomaton</code> from a stream.
+	 * @param stream input stream with serialized automaton
+	 * @exception IOException if input/output related exception occurs
+	 * @exception ClassCastException if the data is not a serialized <code>LazyRunAutomaton</code>
+	 * @exception ClassNotFoundException if the class of the serialized object cannot be found
+	 */
+	public static LazyRunAutomaton load(InputStream stream) throws IOException, ClassCastException, ClassNotFoundException {
+		ObjectInputStream s = new ObjectInputStream(stream);
+		return (LazyRunAutomaton) s.readObject();
+	}
+
+	/**
+	 * Writes this <code>LazyRunAutomaton</code> to the given stream. The
+	 * cached states are not written.
+	 * @param stream output stream for serialized automaton
+	 * @exception IOException if input/output related exception occurs
+	 */
+	public void store(OutputStream stream) throws IOException {
+		ObjectOutputStream s = new ObjectOutputStream(stream);
+		s.writeObject(this);
+		s.flush();
+	}
+
+	/**
+	 * A cache of deterministic states. A state is identified by its row
+	 * offset <code>q * points.length</code> in the transition table, and
+	 * table entries hold <code>(row &lt;&lt; 1 | accept) + 2</code> so that a
+	 * single read gives both the target and whether it accepts. Entries
+	 * only ever change from {@link #UNKNOWN} to their final value, and a
+	 * cache that is grown or flushed is replaced by a new one, so readers
+	 * need no locking. All other access is guarded by the automaton.
+	 */
+	static final class Cache {
+
+		final int[] table;
+		final int[][] sets; // per state, its sorted set of automaton states
+		final Map<RegexSet.Tuple, Integer> ids; // entries of the states by their sets
+		final int resets; // number of flushes before this cache
+		final int initial; // entry of the initial state
+		int size; // number of states
+		long bytes; // estimated memory use
+
+		Cache(LazyRunAutomaton a, int resets) {
+			this.resets = resets;
+			table = new int[16 * a.points.length];
+			sets = new int[16][];
+			ids = new HashMap<RegexSet.Tuple, Integer>();
+			initial = add(new int[] {a.initial}, a);
+		}
+
+		private Cache(Cache c, int states, int classes) {
+			resets = c.resets;
+			table = Arrays.copyOf(c.table, states * classes);
+			sets = Arrays.copyOf(c.sets, states);
+			ids = c.ids;
+			initial = c.initial;
+			size = c.size;
+			bytes = c.bytes;
+		}
+
+		/** Returns a copy with room for twice as many states. */
+		Cache grow(int classes) {
+			return new Cache(this, sets.length * 2, classes);
+		}
+
+		/** Returns the estimated memory use of a state with the given set. */
+		static long cost(int[] set, int classes) {
+			return 4L * (classes + set.length) + 64;
+		}
+
+		/** Returns the entry of the state with the given set, or UNKNOWN if it is not cached. */
+		int get(int[] set) {
+			Integer w = ids.get(new RegexSet.Tuple(set));
+			return w == null ? UNKNOWN : w;
+		}
+
+		/** Adds a state with the given set, which must fit, and returns its entry. */
+		int add(int[] set, LazyRunAutomaton a) {
+			int classes = a.points.length;
+			boolean accepts = false;
+			for (int p : set)
+				accepts |= a.accept[p];
+			int w = ((size * classes) << 1 | (accepts ? 1 : 0)) + 2;
+			sets[size++] = set;
+			bytes += cost(set, classes);
+			ids.put(new RegexSet.Tuple(set), w);
+			return w;
+		}
+	}
+}
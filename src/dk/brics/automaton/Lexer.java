@@ -0,0 +1,128 @@
+package dk.brics.automaton;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A lexer compiled from an ordered list of token automata.
+ *
+ * <p>The token automata are combined into one deterministic automaton, the
+ * anchored product of a {@link RegexSet}, where each accept state carries the
+ * type of the first token in the list that accepts in it. A
+ * {@link Tokenizer} reads the input with this automaton once per token and
+ * returns the longest token at the current position, and among tokens of
+ * that length, the one listed first. Tokens of length 0 are never returned.
+ *
+ * <p>The product automaton can be exponentially larger than the token
+ * automata in the worst case, in the same way as determinization.
+ */
+public class Lexer implements Serializable {
+
+	static final long serialVersionUID = 150001;
+
+	final RunAutomaton automaton;
+	final int[] types; // per state, the token type, or Tokenizer.NONE if it does not accept
+	final boolean[] terminal; // per state, true if every input char leads back to it
+
+	/**
+	 * Constructs a new <code>Lexer</code> where the type of each token is its
+	 * index in the given list.
+	 * @param automata token automata, in order of decreasing priority
+	 */
+	public Lexer(List<Automaton> automata) {
+		this(automata, null);
+	}
+
+	/**
+	 * Constructs a new <code>Lexer</code>.
+	 * @param automata token automata, in order of decreasing priority
+	 * @param types token type of each automaton, non-negative; if null, the
+	 *              type of a token is its index in <code>automata</code>
+	 */
+	public Lexer(List<Automaton> automata, int[] types) {
+		if (types != null && types.length != automata.size())
+			throw new IllegalArgumentException("types and automata differ in length");
+		if (types != null)
+			for (int t : types)
+				if (t < 0)
+					throw new IllegalArgumentException("token types must be non-negative");
+		RegexSet set = new RegexSet(automata, false);
+		automaton = set.automaton;
+		terminal = set.terminal;
+		this.types = new int[automaton.getSize()];
+		for (int p = 0; p < this.types.length; p++) {
+			int[] ids = set.sets[set.stateSets[p]];
+			if (ids.length == 0)
+				this.types[p] = Tokenizer.NONE;
+			else
+				this.types[p] = types == null ? ids[0] : types[ids[0]];
+		}
+	}
+
+	/**
+	 * Returns the number of states of the combined automaton.
+	 */
+	public int getSize() {
+		return automaton.getSize();
+	}
+
+	/**
+	 * Creates a new tokenizer for the given input.
+	 * @param s the input
+	 * @return a new tokenizer at the start of the input
+	 */
+	public Tokenizer newTokenizer(CharSequence s) {
+		return new Tokenizer(this, s, 0, s.length());
+	}
+
+	/**
+	 * Creates a new tokenizer for the given region of the given input. The
+	 * offsets of its tokens are indexes into <code>s</code>.
+	 * @param s the input
+	 * @param startOffset offset of the first char of the region
+	 * @param endOffset offset after the last char of the region
+	 * @return a new tokenizer at the start of the region
+	 */
+	public Tokenizer newTokenizer(CharSequence s, int startOffset, int endOffset) {
+		if (startOffset < 0 || startOffset > endOffset || endOffset > s.length())
+			throw new IndexOutOfBoundsException();
+		return new Tokenizer(this, s, startOffset, endOffset);
+	}
+
+	/**
+	 * Retrieves a serialized <code>Lexer</code> from a stream.
+	 * @param stream input stream with serialized lexer
+	 * @exception IOException if input/output related exception occurs
+	 * @exception ClassCastException if the data is not a serialized <code>Lexer</code>
+	 * @exception ClassNotFoundException if the class of the serialized object cannot be found
+	 */
+	public static Lexer load(InputStream stream) throws IOException, ClassCastException, ClassNotFoundException {
+		ObjectInputStream s = new ObjectInputStream(stream);
+		return (Lexer) s.readObject();
+	}
+
+	/**
+	 * Writes this <code>Lexer</code> to the given stream.
+	 * @param stream output stream for serialized lexer
+	 * @exception IOException if input/output related exception occurs
+	 */
+	public void store(OutputStream stream) throws IOException {
+		ObjectOutputStream s = new ObjectOutputStream(stream);
+		s.writeObject(this);
+		s.flush();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder(automaton.toString());
+		for (int p = 0; p < types.length; p++)
+			if (types[p] != Tokenizer.NONE)
+				b.append("state ").append(p).append(" token ").append(types[p]).append("\n");
+		return b.toString();
+	}
+}
@@ -20,11 +20,22 @@ import java.util.Objects;
  *
  * <p>Execution time is linear to the length of the string O(n) for the method {@link
  * #matches(CharSequence)} below.
+ *
+ * <p>If every string of the automaton contains some literal, such as <code>ERROR</code> in
+ * <code>[a-z]+ERROR[0-9]*</code>, the input is first searched for the literal with
+ * {@link String#indexOf(String, int)}, and the automaton only runs near its occurrences.
+ * See {@link SpecialOperations#getRequiredSubstring(Automaton)}. Likewise, chars on which the
+ * automaton stays in its initial state are skipped without stepping it, using
+ * {@link String#indexOf(int, int)} when only a single char can begin a match.
  */
 public class MatchOnlyRunAutomaton implements Serializable {
 	static final long serialVersionUID = 50001;
 
-	private final RunAutomaton automaton;
+	final RunAutomaton automaton;
+
+	private final RequiredFactor required; // null if there is none, or if loaded from an older version
+
+	private final EscapeSet escape; // chars that leave the initial state, null if too many or loaded from an older version
 
 	public MatchOnlyRunAutomaton(final Automaton a) {
 		this(a, true);
@@ -32,7 +43,9 @@ public class MatchOnlyRunAutomaton implements Serializable {
 
 	public MatchOnlyRunAutomaton(Automaton a, final boolean tableize) {
 		Objects.requireNonNull(a);
+		this.required = RequiredFactor.of(a.clone());
 		this.automaton = new RunAutomaton(addWildcard(a), tableize, ACCEPTED_STATE);
+		this.escape = EscapeSet.of(automaton, automaton.getInitialState());
 	}
 
 	/**
@@ -86,8 +99,27 @@ public class MatchOnlyRunAutomaton implements Serializable {
 
 		final int initial = automaton.getInitialState();
 		int state = initial;
+		int next = -1; // the next occurrence of the required literal
 
 		for (int i = pos; i < len; i++) {
+			if (state == initial && required != null && next < i) {
+				// in the initial state, whether a match follows does not depend on the chars
+				// read so far, so the next match contains a later occurrence of the literal
+				next = required.indexIn(input, i, len);
+				if (next == -1) {
+					return false;
+				}
+				if (required.maxBefore != -1 && next - required.maxBefore > i) {
+					i = next - required.maxBefore;
+				}
+			}
+			if (state == initial && escape != null) {
+				// chars that loop on the initial state cannot start a match
+				i = escape.next(input, i, len);
+				if (i == len) {
+					break;
+				}
+			}
 			state = automaton.step(state, input.charAt(i));
 			if (state == -1) {
 				// If we fail then continue at the next char from the initial state, i.e. wildcard match
@@ -102,6 +134,49 @@ public class MatchOnlyRunAutomaton implements Serializable {
 		return automaton.isAccept(state);
 	}
 
+	/**
+	 * Search the input like {@link #matches(CharSequence)}, running chunks of long inputs in
+	 * parallel in the common fork-join pool.
+	 *
+	 * <p>Each chunk but the first is run from every state of the automaton at once, and the
+	 * runs are merged as they reach the same state, so this pays off for automata whose runs
+	 * quickly agree. If they do not, the rest of the input is searched sequentially after the
+	 * first chunk. Inputs shorter than a few times {@value ParallelRun#MIN_CHUNK} chars are
+	 * searched sequentially.
+	 *
+	 * @param input the input to match a substring pattern against
+	 * @return {@code true} if the pattern is found in a substring in the input, or {@code false} if
+	 * the input is not matched. We also return false for null inputs.
+	 */
+	public boolean matchesParallel(final CharSequence input) {
+		if (input == null || !ParallelRun.pays(input.length())) {
+			return matches(input);
+		}
+		final int state = ParallelRun.run(automaton, true, input);
+		return state == ACCEPTED_STATE || automaton.isAccept(state);
+	}
+
+	/**
+	 * Creates a new scanner that is fed the input in chunks and tells whether
+	 * the chars fed so far contain a match.
+	 * @return A new scanner at the start of the input
+	 */
+	public AutomatonScanner newScanner() {
+		return new AutomatonScanner(automaton, true, escape, automaton.getInitialState(), 0);
+	}
+
+	/**
+	 * Creates a scanner that continues from a snapshot of a scanner of this
+	 * automaton.
+	 * @param state the state of the snapshot, see {@link AutomatonScanner#getState()}
+	 * @param offset the offset of the snapshot, see {@link AutomatonScanner#getOffset()}
+	 * @return A new scanner in the given state
+	 * @exception IllegalArgumentException if the state is not a state of this automaton
+	 */
+	public AutomatonScanner resumeScanner(final int state, final long offset) {
+		return new AutomatonScanner(automaton, true, escape, state, offset);
+	}
+
 	/**
 	 * Retrieves a serialized <code>MatchOnlyRunAutomaton</code> from a stream.
 	 * @param stream input stream with serialized automaton
@@ -131,12 +206,11 @@ public class MatchOnlyRunAutomaton implements Serializable {
 	}
 
 	private static Automaton addWildcard(final Automaton automaton) {
-		// Add a wildcard match to the start of the automaton
-		return WILDCARD_ZERO_OR_MORE.concatenate(automaton);
+		// Add a wildcard match to the start of the automaton, never minimized
+		return RunAutomaton.makeSearch(automaton);
 	}
 
-	private static final Automaton WILDCARD_ZERO_OR_MORE = new RegExp(".*").toAutomaton(true);
 	// Transitions do not contain a negative value of -2, therefore use this to encode whether the
 	// accept is set or not for the target state directly into the transition
-	private static final int ACCEPTED_STATE = -2;
+	static final int ACCEPTED_STATE = -2;
 }
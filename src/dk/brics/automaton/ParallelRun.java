@@ -0,0 +1,212 @@
+package dk.brics.automaton;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a {@link RunAutomaton} on the chunks of a long input in parallel.
+ *
+ * <p>The state in which a chunk is entered is not known until the chunks
+ * before it have been run, so each chunk but the first is run from every
+ * state at once, giving a map from the state before the chunk to the state
+ * after it. The runs are done in lockstep, and runs that reach the same
+ * state are merged, which for most automata leaves a single run after a few
+ * chars. The maps are composed by a fork-join reduction, and the result is
+ * exactly that of a sequential run.
+ *
+ * <p>This only pays off if the runs merge quickly. If a chunk still has more
+ * live runs than half the parallelism after its first
+ * {@value #CONVERGE_BLOCKS} blocks of {@value #MERGE_INTERVAL} chars, all
+ * tasks give up, and the input after the first chunk is run sequentially.
+ * Automata with so many states that running all of them over those blocks
+ * costs more than a chunk are always run sequentially.
+ *
+ * <p>In the maps, -1 stands for the dead state and, for a search automaton
+ * of {@link MatchOnlyRunAutomaton}, <code>ACCEPTED_STATE</code> for a match
+ * already found. Both are kept once reached.
+ */
+final class ParallelRun extends RecursiveTask<int[]> {
+
+	static final long serialVersionUID = 140001;
+
+	/** Fewest chars in a chunk. */
+	static final int MIN_CHUNK = 1 << 16;
+
+	/** Number of chars between merges of the runs of a chunk. */
+	static final int MERGE_INTERVAL = 32;
+
+	/** Number of blocks of chars after which the runs of a chunk must have merged. */
+	static final int CONVERGE_BLOCKS = 4;
+
+	private final RunAutomaton a;
+	private final boolean search; // true if a dead state means restarting from the initial state
+	private final CharSequence s;
+	private final int from;
+	private final int to;
+	private final int chunk; // most chars run by a single task
+	private final int maxRuns; // most live runs of a chunk once they must have merged
+	private final AtomicBoolean failed; // set when a chunk has too many live runs
+
+	private ParallelRun(RunAutomaton a, boolean search, CharSequence s, int from, int to, int chunk, int maxRuns, AtomicBoolean failed) {
+		this.a = a;
+		this.search = search;
+		this.s = s;
+		this.from = from;
+		this.to = to;
+		this.chunk = chunk;
+		this.maxRuns = maxRuns;
+		this.failed = failed;
+	}
+
+	/**
+	 * Returns the state reached by running the given automaton on the given
+	 * string from its initial state, using the common fork-join pool.
+	 * @param search if true, a dead state is left for the initial state and
+	 *               <code>ACCEPTED_STATE</code> is kept once reached
+	 */
+	static int run(RunAutomaton a, boolean search, CharSequence s) {
+		int l = s.length();
+		int parallelism = ForkJoinPool.commonPool().getParallelism();
+		// a few chunks per thread, so that threads that finish early can steal
+		int chunk = Math.max(MIN_CHUNK, (int)((l + 4L * parallelism - 1) / (4L * parallelism)));
+		if (!pays(l) || (long)a.getSize() * CONVERGE_BLOCKS * MERGE_INTERVAL > chunk)
+			return run(a, search, a.getInitialState(), s, 0, l);
+		return run(a, search, s, chunk, Math.max(1, parallelism / 2));
+	}
+
+	/**
+	 * Returns true if a string of the given length is worth running in
+	 * parallel in the common fork-join pool.
+	 */
+	static boolean pays(int length) {
+		return length >= 2 * MIN_CHUNK && ForkJoinPool.commonPool().getParallelism() >= 2;
+	}
+
+	/**
+	 * Returns the state reached by running the given automaton on the given
+	 * string from its initial state, in chunks of at most the given length,
+	 * falling back to a sequential run if a chunk has more than
+	 * <code>maxRuns</code> live runs after its first blocks.
+	 */
+	static int run(RunAutomaton a, boolean search, CharSequence s, int chunk, int maxRuns) {
+		int l = s.length();
+		// the first chunk is only run from the initial state
+		int first = Math.min(chunk, l);
+		ParallelRun rest = new ParallelRun(a, search, s, first, l, chunk, maxRuns, new AtomicBoolean());
+		rest.fork();
+		int p = run(a, search, a.getInitialState(), s, 0, first);
+		int[] map = rest.join();
+		if (p < 0)
+			return p;
+		if (map == null)
+			return run(a, search, p, s, first, l);
+		return map[p];
+	}
+
+	/**
+	 * Returns the map of the chunks of this task, or null if some chunk had
+	 * too many live runs.
+	 */
+	@Override
+	protected int[] compute() {
+		if (failed.get())
+			return null;
+		if (to - from <= chunk)
+			return map();
+		int mid = from + (to - from) / 2;
+		ParallelRun left = new ParallelRun(a, search, s, from, mid, chunk, maxRuns, failed);
+		ParallelRun right = new ParallelRun(a, search, s, mid, to, chunk, maxRuns, failed);
+		right.fork();
+		int[] f = left.compute();
+		int[] g = right.join();
+		if (f == null || g == null)
+			return null;
+		for (int q = 0; q < f.length; q++)
+			if (f[q] >= 0)
+				f[q] = g[f[q]];
+		return f;
+	}
+
+	/**
+	 * Returns the map from each state to the state reached from it on the
+	 * chunk of this task, or null if the runs do not merge to at most
+	 * <code>maxRuns</code> live runs in time or another chunk failed to.
+	 */
+	private int[] map() {
+		int size = a.getSize();
+		int[] owner = new int[size]; // per start state, its index in cur
+		int[] cur = new int[size]; // the distinct states of the runs
+		int[] next = new int[size];
+		int[] remap = new int[size];
+		for (int q = 0; q < size; q++) {
+			owner[q] = q;
+			cur[q] = q;
+		}
+		int k = size;
+		// per state + 2, the index in next given to it in merge gen
+		int[] slot = new int[size + 2];
+		int[] stamp = new int[size + 2];
+		int gen = 0;
+		int i = from;
+		while (i < to && k > 1) {
+			if (failed.get())
+				return null;
+			// run each state over a block of chars, then merge the runs that agree
+			int end = Math.min(to, i + MERGE_INTERVAL);
+			for (int j = 0; j < k; j++)
+				cur[j] = run(a, search, cur[j], s, i, end);
+			i = end;
+			gen++;
+			int m = 0;
+			int live = 0;
+			for (int j = 0; j < k; j++) {
+				int p = cur[j];
+				if (stamp[p + 2] != gen) {
+					stamp[p + 2] = gen;
+					slot[p + 2] = m;
+					next[m++] = p;
+					if (p >= 0)
+						live++;
+				}
+				remap[j] = slot[p + 2];
+			}
+			if (gen == CONVERGE_BLOCKS && live > maxRuns) {
+				failed.set(true);
+				return null;
+			}
+			if (m < k)
+				for (int q = 0; q < size; q++)
+					owner[q] = remap[owner[q]];
+			int[] t = cur;
+			cur = next;
+			next = t;
+			k = m;
+		}
+		if (k == 1 && i < to)
+			cur[0] = run(a, search, cur[0], s, i, to);
+		int[] f = new int[size];
+		for (int q = 0; q < size; q++)
+			f[q] = cur[owner[q]];
+		return f;
+	}
+
+	/**
+	 * Returns the state reached from the given state on the given region of
+	 * the given string.
+	 */
+	static int run(RunAutomaton a, boolean search, int p, CharSequence s, int from, int to) {
+		if (search) {
+			int initial = a.getInitialState();
+			for (int i = from; i < to && p != MatchOnlyRunAutomaton.ACCEPTED_STATE; i++) {
+				p = a.step(p, s.charAt(i));
+				if (p == -1)
+					p = initial;
+			}
+		} else {
+			for (int i = from; i < to && p != -1 && !a.isUniversal(p); i++)
+				p = a.step(p, s.charAt(i));
+		}
+		return p;
+	}
+}
@@ -80,7 +80,7 @@ import java.util.Set;
  * <tr><td></td><td>|</td><td><code><b>@</b></code></td><td>(any string)</td><td><small>[OPTIONAL]</small></td></tr>
  * <tr><td></td><td>|</td><td><code><b>"</b></code>&nbsp;&lt;Unicode string without double-quotes&gt;&nbsp;<code><b>"</b></code></td><td>(a string)</td><td></td></tr>
  * <tr><td></td><td>|</td><td><code><b>(</b></code>&nbsp;<code><b>)</b></code></td><td>(the empty string)</td><td></td></tr>
- * <tr><td></td><td>|</td><td><code><b>(</b></code>&nbsp;<i>unionexp</i>&nbsp;<code><b>)</b></code></td><td>(precedence override)</td><td></td></tr>
+ * <tr><td></td><td>|</td><td><code><b>(</b></code>&nbsp;<i>unionexp</i>&nbsp;<code><b>)</b></code></td><td>(precedence override, capturing group)</td><td></td></tr>
  * <tr><td></td><td>|</td><td><code><b>&lt;</b></code>&nbsp;&lt;identifier&gt;&nbsp;<code><b>&gt;</b></code></td><td>(named automaton)</td><td><small>[OPTIONAL]</small></td></tr>
  * <tr><td></td><td>|</td><td><code><b>&lt;</b><i>n</i>-<i>m</i><b>&gt;</b></code></td><td>(numerical interval)</td><td><small>[OPTIONAL]</small></td></tr>
  *
@@ -101,6 +101,10 @@ import java.util.Set;
  * points, and if <code><i>n</i></code> and <code><i>m</i></code> have the
  * same number of digits, then the conforming strings must have that
  * length (i.e. prefixed by 0's).
+ * <p>
+ * Parentheses are numbered as capturing groups from 1, in the order of
+ * their left parentheses. The groups do not affect the language, but a
+ * {@link CaptureRunAutomaton} reports the substrings they match.
  * @author Anders M&oslash;ller &lt;<a href="mailto:amoeller@cs.au.dk">amoeller@cs.au.dk</a>&gt; 
  * */
 public class RegExp {
@@ -121,7 +125,8 @@ public class RegExp {
 		REGEXP_STRING,
 		REGEXP_ANYSTRING,
 		REGEXP_AUTOMATON,
-		REGEXP_INTERVAL
+		REGEXP_INTERVAL,
+		REGEXP_GROUP
 	}
 	
 	/** 
@@ -172,6 +177,8 @@ public class RegExp {
 	char c;
 	int min, max, digits;
 	char from, to;
+	int group; // number of the capturing group, for REGEXP_GROUP
+	int groups; // number of capturing groups parsed
 	
 	String b;
 	int flags;
@@ -216,6 +223,7 @@ public class RegExp {
 		digits = e.digits;
 		from = e.from;
 		to = e.to;
+		group = e.group;
 		b = null;
 	}
 	
@@ -398,6 +406,9 @@ public class RegExp {
 		case REGEXP_INTERVAL:
 			a = BasicAutomata.makeInterval(min, max, digits);
 			break;
+		case REGEXP_GROUP:
+			a = exp1.toAutomaton(automata, automaton_provider, minimize);
+			break;
 		}
 		return a;
 	}
@@ -405,6 +416,8 @@ public class RegExp {
 	private void findLeaves(RegExp exp, Kind kind, List<Automaton> list, Map<String, Automaton> automata, 
 			AutomatonProvider automaton_provider,
 			boolean minimize) {
+		while (exp.kind == Kind.REGEXP_GROUP)
+			exp = exp.exp1;
 		if (exp.kind == kind) {
 			findLeaves(exp.exp1, kind, list, automata, automaton_provider, minimize);
 			findLeaves(exp.exp2, kind, list, automata, automaton_provider, minimize);
@@ -505,6 +518,9 @@ public class RegExp {
 					b.append('0');
 			b.append(s2).append(">");
 			break;
+		case REGEXP_GROUP:
+			exp1.toStringBuilder(b);
+			break;
 		}
 		return b;
 	}
@@ -538,6 +554,7 @@ public class RegExp {
 		case REGEXP_REPEAT_MIN:
 		case REGEXP_REPEAT_MINMAX:
 		case REGEXP_COMPLEMENT:
+		case REGEXP_GROUP:
 			exp1.getIdentifiers(set);
 			break;
 		case REGEXP_AUTOMATON:
@@ -684,6 +701,14 @@ public class RegExp {
 		return r;
 	}
 
+	static RegExp makeGroup(RegExp exp, int group) {
+		RegExp r = new RegExp();
+		r.kind = Kind.REGEXP_GROUP;
+		r.exp1 = exp;
+		r.group = group;
+		return r;
+	}
+
 	static RegExp makeInterval(int min, int max, int digits) {
 		RegExp r = new RegExp();
 		r.kind = Kind.REGEXP_INTERVAL;
@@ -833,12 +858,13 @@ public class RegExp {
 				throw new IllegalArgumentException("expected '\"' at position " + pos);
 			return makeString(b.substring(start, pos - 1));
 		} else if (match('(')) {
+			int n = ++groups;
 			if (match(')'))
-				return makeString("");
+				return makeGroup(makeString(""), n);
 			RegExp e = parseUnionExp();
 			if (!match(')'))
 				throw new IllegalArgumentException("expected ')' at position " + pos);
-			return e;
+			return makeGroup(e, n);
 		} else if ((check(AUTOMATON) || check(INTERVAL)) && match('<')) {
 			int start = pos;
 			while (more() && !peek(">"))
@@ -0,0 +1,402 @@
+package dk.brics.automaton;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of patterns that are matched against an input together, in a single
+ * scan of the input.
+ *
+ * <p>The patterns are combined into one deterministic product automaton whose
+ * states track all patterns at once. Each state carries the set of ids of the
+ * patterns that accept in it, where the id of a pattern is its index in the
+ * list given to the constructor. Identical id sets are stored only once.
+ *
+ * <p>In anchored mode a pattern matches if it accepts the whole input, like
+ * {@link RunAutomaton#run(String)}. In search mode a pattern matches if it
+ * accepts some substring of the input, like {@link MatchOnlyRunAutomaton#matches(CharSequence)}.
+ * The search mode product only tracks the pattern prefixes that end at the
+ * current position, and the ids of all accept states passed are collected
+ * during the scan, so patterns that match together do not multiply the
+ * number of states.
+ *
+ * <p>The product automaton can be exponentially larger than the pattern
+ * automata in the worst case, in the same way as determinization.
+ */
+public class RegexSet implements Serializable {
+
+	static final long serialVersionUID = 70001;
+
+	final int count;
+	final boolean search;
+	final RunAutomaton automaton;
+	final int[] stateSets; // per state, the index of its id set in sets
+	final int[][] sets; // distinct sorted pattern id sets, sets[0] is empty
+	final boolean[] terminal; // per state, true if every input char leads back to it
+
+	/**
+	 * Constructs a new anchored <code>RegexSet</code> from the given regular expressions.
+	 * @param regexps regular expressions, numbered from 0
+	 */
+	public RegexSet(RegExp... regexps) {
+		this(toAutomata(regexps), false);
+	}
+
+	/**
+	 * Constructs a new anchored <code>RegexSet</code> from the given automata.
+	 * @param automata automata, numbered from 0
+	 */
+	public RegexSet(Automaton... automata) {
+		this(Arrays.asList(automata), false);
+	}
+
+	/**
+	 * Constructs a new <code>RegexSet</code> with a tableized alphabet.
+	 * @param automata automata, numbered by their index in the list
+	 * @param search if true, patterns match substrings of the input, otherwise the whole input
+	 */
+	public RegexSet(List<Automaton> automata, boolean search) {
+		this(automata, search, true);
+	}
+
+	/**
+	 * Constructs a new <code>RegexSet</code>.
+	 * @param automata automata, numbered by their index in the list
+	 * @param search if true, patterns match substrings of the input, otherwise the whole input
+	 * @param tableize if true, a transition table is created which makes the <code>run</code>
+	 *                 methods faster in return of a higher memory usage
+	 */
+	public RegexSet(List<Automaton> automata, boolean search, boolean tableize) {
+		this.count = automata.size();
+		this.search = search;
+		RunAutomaton[] components = new RunAutomaton[count];
+		for (int i = 0; i < count; i++) {
+			Automaton a = automata.get(i);
+			if (search)
+				a = BasicAutomata.makeAnyString().concatenate(a);
+			else
+				a = a.clone();
+			a.minimize();
+			components[i] = new RunAutomaton(a, false);
+		}
+		char[] points = startPoints(components);
+
+		// in search mode a component rests in its initial state, in anchored mode it is dead;
+		// a dead component in search mode has an empty language and is left out
+		int[] defaults = new int[count];
+		int[] always = new int[count]; // search mode: the patterns that accept the empty string
+		int nalways = 0;
+		for (int i = 0; i < count; i++) {
+			defaults[i] = search ? components[i].getInitialState() : -1;
+			if (search && components[i].isAccept(defaults[i]))
+				always[nalways++] = i;
+		}
+		int[][] starters = new int[points.length][]; // search mode: per class, the components leaving their initial state
+		if (search) {
+			int[] scratch = new int[count];
+			for (int c = 0; c < points.length; c++) {
+				int m = 0;
+				for (int i = 0; i < count; i++) {
+					int q = components[i].step(defaults[i], points[c]);
+					if (q != defaults[i] && q != -1)
+						scratch[m++] = i;
+				}
+				starters[c] = Arrays.copyOf(scratch, m);
+			}
+		}
+
+		// subset construction over the tuples of component states, where a
+		// tuple holds pairs of component id and state for the components
+		// that are not in their default state, in increasing id order
+		List<int[]> tuples = new ArrayList<int[]>();
+		List<State> states = new ArrayList<State>();
+		Map<Tuple, State> seen = new HashMap<Tuple, State>();
+		Automaton product = new Automaton();
+		int[] start = new int[search ? 0 : 2 * count];
+		for (int i = 0; i < start.length / 2; i++) {
+			start[2 * i] = i;
+			start[2 * i + 1] = components[i].getInitialState();
+		}
+		tuples.add(start);
+		states.add(product.initial);
+		seen.put(new Tuple(start), product.initial);
+		List<Boolean> terminals = new ArrayList<Boolean>();
+		int[] stateOf = new int[count];
+		Arrays.fill(stateOf, -2);
+		int[] touched = new int[count];
+		for (int k = 0; k < tuples.size(); k++) {
+			int[] tuple = tuples.get(k);
+			State s = states.get(k);
+			boolean loops = true;
+			for (int c = 0; c < points.length; c++) {
+				int m = 0;
+				for (int j = 0; j < tuple.length; j += 2) {
+					int i = tuple[j];
+					stateOf[i] = components[i].step(tuple[j + 1], points[c]);
+					touched[m++] = i;
+				}
+				if (search)
+					for (int i : starters[c])
+						if (stateOf[i] == -2) {
+							stateOf[i] = components[i].step(defaults[i], points[c]);
+							touched[m++] = i;
+						}
+				Arrays.sort(touched, 0, m);
+				int n = 0;
+				for (int j = 0; j < m; j++)
+					if (stateOf[touched[j]] != defaults[touched[j]] && stateOf[touched[j]] != -1)
+						n++;
+				int[] next = new int[2 * n];
+				n = 0;
+				for (int j = 0; j < m; j++) {
+					int i = touched[j];
+					if (stateOf[i] != defaults[i] && stateOf[i] != -1) {
+						next[n++] = i;
+						next[n++] = stateOf[i];
+					}
+					stateOf[i] = -2;
+				}
+				if (!search && next.length == 0) {
+					loops = false;
+					continue;
+				}
+				Tuple key = new Tuple(next);
+				State t = seen.get(key);
+				if (t == null) {
+					t = new State();
+					tuples.add(next);
+					states.add(t);
+					seen.put(key, t);
+				}
+				loops &= t == s;
+				char max = c + 1 < points.length ? (char)(points[c + 1] - 1) : Character.MAX_VALUE;
+				s.addTransition(new Transition(points[c], max, t));
+			}
+			terminals.add(loops);
+		}
+		product.reduce();
+
+		// share the pattern id sets between states
+		int[] setOf = new int[tuples.size()];
+		Map<Tuple, Integer> setIndex = new HashMap<Tuple, Integer>();
+		List<int[]> distinct = new ArrayList<int[]>();
+		distinct.add(new int[0]);
+		setIndex.put(new Tuple(new int[0]), 0);
+		int[] ids = new int[count];
+		for (int k = 0; k < tuples.size(); k++) {
+			int[] tuple = tuples.get(k);
+			int m = 0;
+			for (int j = 0; j < tuple.length; j += 2)
+				if (components[tuple[j]].isAccept(tuple[j + 1]))
+					ids[m++] = tuple[j];
+			for (int j = 0; j < nalways; j++)
+				ids[m++] = always[j];
+			Arrays.sort(ids, 0, m);
+			Tuple key = new Tuple(Arrays.copyOf(ids, m));
+			Integer index = setIndex.get(key);
+			if (index == null) {
+				index = distinct.size();
+				distinct.add(key.values);
+				setIndex.put(key, index);
+			}
+			setOf[k] = index;
+			states.get(k).accept = m > 0;
+		}
+		automaton = new RunAutomaton(product, tableize);
+		int size = automaton.getSize();
+		stateSets = new int[size];
+		terminal = new boolean[size];
+		for (int k = 0; k < tuples.size(); k++) {
+			int n = states.get(k).number;
+			stateSets[n] = setOf[k];
+			terminal[n] = terminals.get(k);
+		}
+		sets = distinct.toArray(new int[distinct.size()][]);
+	}
+
+	private static List<Automaton> toAutomata(RegExp[] regexps) {
+		List<Automaton> automata = new ArrayList<Automaton>(regexps.length);
+		for (RegExp r : regexps)
+			automata.add(r.toAutomaton());
+		return automata;
+	}
+
+	private static char[] startPoints(RunAutomaton[] components) {
+		int n = 1;
+		for (RunAutomaton a : components)
+			n += a.points.length;
+		char[] points = new char[n];
+		points[0] = Character.MIN_VALUE;
+		n = 1;
+		for (RunAutomaton a : components)
+			for (char c : a.points)
+				points[n++] = c;
+		Arrays.sort(points);
+		int m = 0;
+		for (int i = 0; i < points.length; i++)
+			if (m == 0 || points[i] != points[m - 1])
+				points[m++] = points[i];
+		return Arrays.copyOf(points, m);
+	}
+
+	/**
+	 * Returns the number of patterns in this set.
+	 */
+	public int getPatternCount() {
+		return count;
+	}
+
+	/**
+	 * Returns true if this set matches substrings of the input, false if
+	 * it matches the whole input.
+	 */
+	public boolean isSearch() {
+		return search;
+	}
+
+	/**
+	 * Returns the ids of the patterns that match the given string, in
+	 * increasing order.
+	 */
+	public int[] matchingPatterns(CharSequence s) {
+		if (search) {
+			BitSet found = collect(s);
+			int[] ids = new int[found.cardinality()];
+			for (int i = found.nextSetBit(0), m = 0; i >= 0; i = found.nextSetBit(i + 1))
+				ids[m++] = i;
+			return ids;
+		}
+		int p = scan(s, false);
+		return p == -1 ? sets[0].clone() : sets[stateSets[p]].clone();
+	}
+
+	/**
+	 * Returns the lowest id of the patterns that match the given string, or
+	 * -1 if no pattern matches.
+	 */
+	public int firstMatchingPattern(CharSequence s) {
+		if (search) {
+			BitSet found = collect(s);
+			return found.nextSetBit(0);
+		}
+		int p = scan(s, false);
+		if (p == -1 || !automaton.isAccept(p))
+			return -1;
+		return sets[stateSets[p]][0];
+	}
+
+	/**
+	 * Returns true if any pattern matches the given string. In search mode,
+	 * the scan stops at the first match.
+	 */
+	public boolean matchesAny(CharSequence s) {
+		int p = scan(s, search);
+		return p != -1 && automaton.isAccept(p);
+	}
+
+	/**
+	 * Runs the product automaton on the given string and returns the state
+	 * it ends in, or -1 if no pattern can match.
+	 */
+	private int scan(CharSequence s, boolean stopAtAccept) {
+		int p = automaton.initial;
+		int l = s.length();
+		for (int i = 0; i < l; i++) {
+			if (terminal[p] || (stopAtAccept && automaton.isAccept(p)))
+				return p;
+			p = automaton.step(p, s.charAt(i));
+			if (p == -1)
+				return -1;
+		}
+		return p;
+	}
+
+	/**
+	 * Runs the search product automaton on the given string and returns the
+	 * ids of the accept states passed. The scan stops early once every
+	 * pattern has matched.
+	 */
+	private BitSet collect(CharSequence s) {
+		BitSet found = new BitSet(count);
+		int matched = 0;
+		int p = automaton.initial;
+		int l = s.length();
+		for (int i = 0; ; i++) {
+			if (automaton.isAccept(p))
+				for (int id : sets[stateSets[p]])
+					if (!found.get(id)) {
+						found.set(id);
+						matched++;
+					}
+			if (i == l || matched == count || terminal[p])
+				return found;
+			p = automaton.step(p, s.charAt(i));
+			if (p == -1)
+				return found;
+		}
+	}
+
+	/**
+	 * Retrieves a serialized <code>RegexSet</code> from a stream.
+	 * @param stream input stream with serialized set
+	 * @exception IOException if input/output related exception occurs
+	 * @exception ClassCastException if the data is not a serialized <code>RegexSet</code>
+	 * @exception ClassNotFoundException if the class of the serialized object cannot be found
+	 */
+	public static RegexSet load(InputStream stream) throws IOException, ClassCastException, ClassNotFoundException {
+		ObjectInputStream s = new ObjectInputStream(stream);
+		return (RegexSet) s.readObject();
+	}
+
+	/**
+	 * Writes this <code>RegexSet</code> to the given stream.
+	 * @param stream output stream for serialized set
+	 * @exception IOException if input/output related exception occurs
+	 */
+	public void store(OutputStream stream) throws IOException {
+		ObjectOutputStream s = new ObjectOutputStream(stream);
+		s.writeObject(this);
+		s.flush();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder(automaton.toString());
+		for (int p = 0; p < stateSets.length; p++)
+			if (stateSets[p] != 0)
+				b.append("state ").append(p).append(" matches ").append(Arrays.toString(sets[stateSets[p]])).append("\n");
+		return b.toString();
+	}
+
+	/** Hash key for an int array. */
+	static final class Tuple {
+
+		final int[] values;
+		final int hash;
+
+		Tuple(int[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Tuple && Arrays.equals(values, ((Tuple)obj).values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
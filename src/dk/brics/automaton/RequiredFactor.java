@@ -0,0 +1,329 @@
+package dk.brics.automaton;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A string that occurs in every string accepted by an automaton, used to
+ * skip input that cannot contain a match.
+ *
+ * <p>The factor is found at a state that every accepting path passes
+ * through, that is, a dominator of the accept states. From the first entry
+ * into such a state, the chars that all paths must read next are appended,
+ * and the chars that all paths must have read just before are prepended.
+ */
+final class RequiredFactor implements Serializable {
+
+	static final long serialVersionUID = 110001;
+
+	/** Longest factor that is extracted. */
+	static final int MAX_LENGTH = 256;
+
+	final String literal;
+	final int maxBefore; // the most chars a match can start before the factor, -1 if unbounded
+
+	RequiredFactor(String literal, int maxBefore) {
+		this.literal = literal;
+		this.maxBefore = maxBefore;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of the factor in the given
+	 * string that lies between <code>from</code> and <code>to</code>, or -1
+	 * if there is none.
+	 */
+	int indexIn(CharSequence s, int from, int to) {
+		int l = literal.length();
+		int i;
+		if (s instanceof String)
+			i = ((String)s).indexOf(literal, from);
+		else {
+			char c = literal.charAt(0);
+			search: for (i = from; i <= to - l; i++) {
+				if (s.charAt(i) != c)
+					continue;
+				for (int j = 1; j < l; j++)
+					if (s.charAt(i + j) != literal.charAt(j))
+						continue search;
+				return i;
+			}
+			return -1;
+		}
+		return i != -1 && i <= to - l ? i : -1;
+	}
+
+	/**
+	 * Returns the longest required factor found for the given automaton, or
+	 * null if none is found or the automaton accepts the empty string.
+	 */
+	static RequiredFactor of(Automaton a) {
+		if (a.isSingleton())
+			return a.singleton.length() > 0 ? new RequiredFactor(a.singleton, 0) : null;
+		Set<State> all = a.getStates();
+		Automaton.setStateNumbers(all);
+		int n = all.size();
+		State[] states = new State[n];
+		for (State s : all)
+			states[s.number] = s;
+
+		// the live states, which can reach an accept state, and their live predecessors
+		List<List<Integer>> preds = new ArrayList<List<Integer>>(n);
+		for (int i = 0; i < n; i++)
+			preds.add(new ArrayList<Integer>());
+		for (State s : states)
+			for (Transition t : s.transitions)
+				preds.get(t.to.number).add(s.number);
+		boolean[] live = new boolean[n];
+		int[] worklist = new int[n];
+		int w = 0;
+		for (State s : states)
+			if (s.accept) {
+				live[s.number] = true;
+				worklist[w++] = s.number;
+			}
+		while (w > 0)
+			for (int p : preds.get(worklist[--w]))
+				if (!live[p]) {
+					live[p] = true;
+					worklist[w++] = p;
+				}
+		int initial = a.initial.number;
+		if (!live[initial] || a.initial.accept)
+			return null;
+
+		int[] idom = dominators(states, live, initial);
+		RequiredFactor best = null;
+		for (int q = idom[n]; q != -1; q = q == initial ? -1 : idom[q]) {
+			StringBuilder b = new StringBuilder();
+			int before = backward(states, preds, live, idom, initial, q, b);
+			b.reverse();
+			forward(states, live, q, b);
+			if (b.length() == 0)
+				continue;
+			int maxBefore = longestPathTo(states, live, idom, initial, q);
+			RequiredFactor f = new RequiredFactor(b.toString(), maxBefore == -1 ? -1 : maxBefore - before);
+			if (best == null || f.literal.length() > best.literal.length()
+					|| (f.literal.length() == best.literal.length() && f.maxBefore != -1 && best.maxBefore == -1))
+				best = f;
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the immediate dominators of the live states, with index
+	 * <code>n</code> standing for a sink that all accept states lead to,
+	 * using the algorithm of Cooper, Harvey and Kennedy.
+	 */
+	private static int[] dominators(State[] states, boolean[] live, int initial) {
+		int n = states.length;
+		// reverse postorder of the live states, and the sink last
+		int[] order = new int[n + 1];
+		int[] rpo = new int[n + 1];
+		Arrays.fill(rpo, -1);
+		int k = n + 1;
+		boolean[] visited = new boolean[n];
+		int[] stack = new int[n];
+		Transition[][] trans = new Transition[n][];
+		int[] next = new int[n];
+		int sp = 0;
+		stack[sp++] = initial;
+		visited[initial] = true;
+		trans[initial] = states[initial].transitions.toArray(new Transition[0]);
+		order[--k] = n; // the sink comes after everything
+		while (sp > 0) {
+			int s = stack[sp - 1];
+			if (next[s] < trans[s].length) {
+				int t = trans[s][next[s]++].to.number;
+				if (live[t] && !visited[t]) {
+					visited[t] = true;
+					trans[t] = states[t].transitions.toArray(new Transition[0]);
+					stack[sp++] = t;
+				}
+			} else {
+				order[--k] = s;
+				sp--;
+			}
+		}
+		int[] nodes = Arrays.copyOfRange(order, k, n + 1);
+		for (int i = 0; i < nodes.length; i++)
+			rpo[nodes[i]] = i;
+
+		// predecessors of the live states and the sink, in the live graph
+		List<List<Integer>> preds = new ArrayList<List<Integer>>(n + 1);
+		for (int i = 0; i <= n; i++)
+			preds.add(new ArrayList<Integer>());
+		for (int s : nodes) {
+			if (s == n)
+				continue;
+			for (Transition t : states[s].transitions)
+				if (live[t.to.number])
+					preds.get(t.to.number).add(s);
+			if (states[s].accept)
+				preds.get(n).add(s);
+		}
+
+		int[] idom = new int[n + 1];
+		Arrays.fill(idom, -1);
+		idom[initial] = initial;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 1; i < nodes.length; i++) {
+				int s = nodes[i];
+				int d = -1;
+				for (int p : preds.get(s))
+					if (idom[p] != -1)
+						d = d == -1 ? p : intersect(d, p, idom, rpo);
+				if (d != idom[s]) {
+					idom[s] = d;
+					changed = true;
+				}
+			}
+		}
+		return idom;
+	}
+
+	private static int intersect(int a, int b, int[] idom, int[] rpo) {
+		while (a != b) {
+			while (rpo[a] > rpo[b])
+				a = idom[a];
+			while (rpo[b] > rpo[a])
+				b = idom[b];
+		}
+		return a;
+	}
+
+	private static boolean dominates(int q, int s, int[] idom, int initial) {
+		while (true) {
+			if (s == q)
+				return true;
+			if (s == initial)
+				return false;
+			s = idom[s];
+		}
+	}
+
+	/**
+	 * Appends, in reverse, the chars that every path reads just before it
+	 * first enters state <code>q</code>, and returns their number.
+	 */
+	private static int backward(State[] states, List<List<Integer>> preds, boolean[] live, int[] idom, int initial, int q, StringBuilder b) {
+		if (q == initial)
+			return 0;
+		// the first entry into q comes from a state that q does not dominate
+		List<Integer> set = new ArrayList<Integer>();
+		for (int p : preds.get(q))
+			if (live[p] && !dominates(q, p, idom, initial))
+				set.add(p);
+		boolean[] targets = new boolean[states.length];
+		targets[q] = true;
+		while (b.length() < MAX_LENGTH) {
+			int c = -1;
+			for (int p : set)
+				for (Transition t : states[p].transitions)
+					if (targets[t.to.number]) {
+						if (t.min != t.max || (c != -1 && c != t.min))
+							return b.length();
+						c = t.min;
+					}
+			if (c == -1)
+				return b.length();
+			b.append((char)c);
+			// go on unless a path may start right here; the states
+			// before the first entry into q are not dominated by q
+			Arrays.fill(targets, false);
+			for (int p : set) {
+				if (p == initial)
+					return b.length();
+				targets[p] = true;
+			}
+			List<Integer> from = new ArrayList<Integer>();
+			boolean[] added = new boolean[states.length];
+			for (int p : set)
+				for (int r : preds.get(p))
+					if (live[r] && !added[r] && !dominates(q, r, idom, initial)) {
+						added[r] = true;
+						from.add(r);
+					}
+			set = from;
+		}
+		return b.length();
+	}
+
+	/**
+	 * Appends the chars that every path reads next after it enters state
+	 * <code>q</code>, up to where a path may accept.
+	 */
+	private static void forward(State[] states, boolean[] live, int q, StringBuilder b) {
+		int[] members = {q};
+		int size = 1;
+		while (b.length() < MAX_LENGTH) {
+			int c = -1;
+			boolean[] next = new boolean[states.length];
+			int[] targets = new int[states.length];
+			int m = 0;
+			for (int i = 0; i < size; i++) {
+				State s = states[members[i]];
+				if (s.accept)
+					return;
+				for (Transition t : s.transitions)
+					if (live[t.to.number]) {
+						if (t.min != t.max || (c != -1 && c != t.min))
+							return;
+						c = t.min;
+						if (!next[t.to.number]) {
+							next[t.to.number] = true;
+							targets[m++] = t.to.number;
+						}
+					}
+			}
+			if (c == -1)
+				return;
+			b.append((char)c);
+			members = targets;
+			size = m;
+		}
+	}
+
+	/**
+	 * Returns the length of the longest path from the initial state to the
+	 * first entry into state <code>q</code>, or -1 if it is unbounded.
+	 */
+	private static int longestPathTo(State[] states, boolean[] live, int[] idom, int initial, int q) {
+		int n = states.length;
+		int[] longest = new int[n]; // -2 while being visited
+		boolean[] done = new boolean[n];
+		return longestFrom(initial, states, live, idom, initial, q, longest, done, 0);
+	}
+
+	/** Returns the longest path from state <code>s</code> to <code>q</code>, or -1 if unbounded. */
+	private static int longestFrom(int s, State[] states, boolean[] live, int[] idom, int initial, int q,
+			int[] longest, boolean[] done, int depth) {
+		if (s == q)
+			return 0;
+		if (done[s])
+			return longest[s];
+		if (longest[s] == -2 || depth > 1000)
+			return -1; // on a cycle, or too deep to tell
+		longest[s] = -2;
+		int max = 0;
+		for (Transition t : states[s].transitions) {
+			int r = t.to.number;
+			if (!live[r] || (r != q && dominates(q, r, idom, initial)))
+				continue;
+			int l = longestFrom(r, states, live, idom, initial, q, longest, done, depth + 1);
+			if (l == -1) {
+				longest[s] = -1;
+				done[s] = true;
+				return -1;
+			}
+			max = Math.max(max, l + 1);
+		}
+		longest[s] = max;
+		done[s] = true;
+		return max;
+	}
+}
@@ -0,0 +1,189 @@
+package dk.brics.automaton;
+
+import java.util.regex.MatchResult;
+
+/**
+ * A tool that finds matches in a given character sequence from right to
+ * left using a {@link ReverseRunAutomaton}.
+ *
+ * <p>Each call to {@link #find()} returns the rightmost match that ends at or
+ * before the start of the previous one, extended as far to the left as
+ * possible. This is the leftmost-longest match of {@link AutomatonMatcher}
+ * on the reversed input, which is what is run here, so the first match
+ * costs time in its distance from the end of the input.
+ *
+ * @see ReverseRunAutomaton#newMatcher(CharSequence)
+ * @see ReverseRunAutomaton#newMatcher(CharSequence, int, int)
+ */
+public class ReverseAutomatonMatcher implements MatchResult {
+
+	ReverseAutomatonMatcher(final CharSequence chars, final RunAutomaton reverse) {
+		this(chars, reverse, 0, chars.length());
+	}
+
+	ReverseAutomatonMatcher(final CharSequence chars, final RunAutomaton reverse, final int from, final int to) {
+		this.chars = chars;
+		this.from = from;
+		this.to = to;
+		this.matcher = new AutomatonMatcher(new Reversed(chars, from, to), reverse);
+	}
+
+	private final CharSequence chars;
+	private final int from; // offset of the region in chars
+	private final int to; // offset after the region in chars
+	private final AutomatonMatcher matcher; // runs on the reversed input
+
+	private int matchStart = -1;
+	private int matchEnd = -1;
+
+	/**
+	 * Find the next matching subsequence of the input, going from right to
+	 * left.
+	 * <br>
+	 * This also updates the values for the {@code start}, {@code end}, and
+	 * {@code group} methods.
+	 *
+	 * @return {@code true} if there is a matching subsequence.
+	 */
+	public boolean find() {
+		if (!matcher.find()) {
+			matchStart = matchEnd = -1;
+			return false;
+		}
+		int l = to - from;
+		matchStart = l - matcher.end();
+		matchEnd = l - matcher.start();
+		return true;
+	}
+
+	/**
+	 * Returns the offset after the last character matched.
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public int end() throws IllegalStateException {
+		matchGood();
+		return matchEnd;
+	}
+
+	/**
+	 * Returns the offset after the last character matched of the specified
+	 * capturing group. The only valid group is 0 (the entire match).
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 * @throws IndexOutOfBoundsException if the group is not 0.
+	 */
+	public int end(final int group) throws IndexOutOfBoundsException, IllegalStateException {
+		onlyZero(group);
+		return end();
+	}
+
+	/**
+	 * Returns the subsequence of the input found by the previous match.
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public String group() throws IllegalStateException {
+		matchGood();
+		return chars.subSequence(from + matchStart, from + matchEnd).toString();
+	}
+
+	/**
+	 * Returns the subsequence of the input found by the specified capturing
+	 * group during the previous match. The only valid group is 0 (the entire
+	 * match).
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 * @throws IndexOutOfBoundsException if the group is not 0.
+	 */
+	public String group(final int group) throws IndexOutOfBoundsException, IllegalStateException {
+		onlyZero(group);
+		return group();
+	}
+
+	/**
+	 * Returns the number of capturing groups, which is always 0.
+	 */
+	public int groupCount() {
+		return 0;
+	}
+
+	/**
+	 * Returns the offset of the first character matched.
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public int start() throws IllegalStateException {
+		matchGood();
+		return matchStart;
+	}
+
+	/**
+	 * Returns the offset of the first character matched of the specified
+	 * capturing group. The only valid group is 0 (the entire match).
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 * @throws IndexOutOfBoundsException if the group is not 0.
+	 */
+	public int start(final int group) throws IndexOutOfBoundsException, IllegalStateException {
+		onlyZero(group);
+		return start();
+	}
+
+	/** Helper method that requires the group argument to be 0. */
+	private static void onlyZero(final int group) throws IndexOutOfBoundsException {
+		if (group != 0) {
+			throw new IndexOutOfBoundsException("The only group supported is 0.");
+		}
+	}
+
+	/** Helper method to check that the last match attempt was valid. */
+	private void matchGood() throws IllegalStateException {
+		if ((matchStart < 0) || (matchEnd < 0)) {
+			throw new IllegalStateException("There was no available match.");
+		}
+	}
+
+	/**
+	 * A view of a region of a character sequence in reverse order.
+	 */
+	static final class Reversed implements CharSequence {
+
+		private final CharSequence chars;
+		private final int start;
+		private final int end;
+
+		Reversed(final CharSequence chars, final int start, final int end) {
+			this.chars = chars;
+			this.start = start;
+			this.end = end;
+		}
+
+		public int length() {
+			return end - start;
+		}
+
+		public char charAt(final int index) {
+			return chars.charAt(end - 1 - index);
+		}
+
+		public CharSequence subSequence(final int from, final int to) {
+			return new Reversed(chars, end - to, end - from);
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder b = new StringBuilder(length());
+			for (int i = end - 1; i >= start; i--) {
+				b.append(chars.charAt(i));
+			}
+			return b.toString();
+		}
+	}
+}
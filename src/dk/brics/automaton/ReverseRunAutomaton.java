@@ -0,0 +1,166 @@
+package dk.brics.automaton;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Finite-state automaton that runs backwards from the end of its input.
+ *
+ * <p>The automaton is built from the reverse of the language, so reading the
+ * input from its last char to its first accepts exactly the strings accepted
+ * by the given automaton. For a suffix rule such as <code>.*\.txt</code>,
+ * the reverse automaton reaches a state from which every continuation is
+ * accepted after reading <code>txt.</code>, and a state from which none is
+ * after the first char that does not fit, so the run takes time in the
+ * length of the suffix rather than of the input.
+ *
+ * @see RunAutomaton
+ */
+public class ReverseRunAutomaton implements Serializable {
+
+	static final long serialVersionUID = 130001;
+
+	final RunAutomaton automaton; // runs on the reverse language
+
+	/**
+	 * Constructs a new <code>ReverseRunAutomaton</code> for the language of
+	 * the given automaton. Same as <code>ReverseRunAutomaton(a, true)</code>.
+	 * @param a an automaton
+	 */
+	public ReverseRunAutomaton(Automaton a) {
+		this(a, true);
+	}
+
+	/**
+	 * Constructs a new <code>ReverseRunAutomaton</code> for the language of
+	 * the given automaton, which is not modified.
+	 * @param a an automaton
+	 * @param tableize if true, a transition table is created which makes the <code>run</code>
+	 *                 methods faster in return of a higher memory usage
+	 */
+	public ReverseRunAutomaton(Automaton a, boolean tableize) {
+		Automaton r = a.cloneExpanded();
+		SpecialOperations.reverse(r);
+		r.minimize();
+		automaton = new RunAutomaton(r, tableize);
+	}
+
+	/**
+	 * Returns the number of states of the reverse automaton.
+	 */
+	public int getSize() {
+		return automaton.getSize();
+	}
+
+	/**
+	 * Returns true if the given string is accepted by this automaton. The
+	 * string is read from its end, and the run stops as soon as the result
+	 * is known.
+	 */
+	public boolean runReverse(CharSequence s) {
+		RunAutomaton a = automaton;
+		int p = a.initial;
+		for (int i = s.length() - 1; i >= 0; i--) {
+			if (a.isUniversal(p))
+				return true;
+			p = a.step(p, s.charAt(i));
+			if (p == -1)
+				return false;
+		}
+		return a.isAccept(p);
+	}
+
+	/**
+	 * Returns the length of the longest accepted suffix of the given string.
+	 * @param s the string
+	 * @return length of the longest accepted suffix, -1 if no suffix is accepted
+	 */
+	public int longestSuffixMatch(CharSequence s) {
+		return longestSuffixMatch(s, s.length());
+	}
+
+	/**
+	 * Returns the length of the longest accepted run of the given string
+	 * ending at the given offset.
+	 * @param s the string
+	 * @param end offset into <code>s</code> after the last char of the run
+	 * @return length of the longest accepted run, -1 if no run is accepted
+	 */
+	public int longestSuffixMatch(CharSequence s, int end) {
+		RunAutomaton a = automaton;
+		int p = a.initial;
+		int max = -1;
+		for (int i = end; ; i--) {
+			if (a.isUniversal(p))
+				return end;
+			if (a.isAccept(p))
+				max = end - i;
+			if (i == 0)
+				break;
+			p = a.step(p, s.charAt(i - 1));
+			if (p == -1)
+				break;
+		}
+		return max;
+	}
+
+	/**
+	 * Creates a new matcher that finds the matches in the given input from
+	 * the rightmost one to the leftmost.
+	 * @param s the CharSequence to search
+	 * @return A new matcher for the given input
+	 */
+	public ReverseAutomatonMatcher newMatcher(CharSequence s) {
+		return new ReverseAutomatonMatcher(s, automaton);
+	}
+
+	/**
+	 * Creates a new matcher for the given region of the given input. The
+	 * region is not copied, and the offsets of its matches are relative to
+	 * its start.
+	 * @param s the CharSequence to search
+	 * @param startOffset the starting offset of the given character sequence
+	 * @param endOffset the ending offset of the given character sequence
+	 * @return A new matcher for the given input
+	 * @throws IndexOutOfBoundsException if the region is not within the input
+	 */
+	public ReverseAutomatonMatcher newMatcher(CharSequence s, int startOffset, int endOffset) throws IndexOutOfBoundsException {
+		AutomatonMatcher.checkRegion(s.length(), startOffset, endOffset);
+		return new ReverseAutomatonMatcher(s, automaton, startOffset, endOffset);
+	}
+
+	/**
+	 * Retrieves a serialized <code>ReverseRunAutomaton</code> from a stream.
+	 * @param stream input stream with serialized automaton
+	 * @exception IOException if input/output related exception occurs
+	 * @exception ClassCastException if the data is not a serialized <code>ReverseRunAutomaton</code>
+	 * @exception ClassNotFoundException if the class of the serialized object cannot be found
+	 */
+	public static ReverseRunAutomaton load(InputStream stream) throws IOException, ClassCastException, ClassNotFoundException {
+		ObjectInputStream s = new ObjectInputStream(stream);
+		return (ReverseRunAutomaton) s.readObject();
+	}
+
+	/**
+	 * Writes this <code>ReverseRunAutomaton</code> to the given stream.
+	 * @param stream output stream for serialized automaton
+	 * @exception IOException if input/output related exception occurs
+	 */
+	public void store(OutputStream stream) throws IOException {
+		ObjectOutputStream s = new ObjectOutputStream(stream);
+		s.writeObject(this);
+		s.flush();
+	}
+
+	/**
+	 * Returns a string representation of the reverse automaton.
+	 */
+	@Override
+	public String toString() {
+		return automaton.toString();
+	}
+}
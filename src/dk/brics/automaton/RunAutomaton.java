@@ -34,9 +34,27 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Finite-state automaton with fast run operation.
@@ -46,23 +64,66 @@ public class RunAutomaton implements Serializable {
 
 	static final long serialVersionUID = 20001;
 
+	/** Number of dense table entries below which the table is never compressed. */
+	static final int COMPRESS_MIN_SIZE = 1 << 16;
+
+	/** Number of dense table entries below which the table always has int entries. */
+	static final int NARROW_MIN_SIZE = 1 << 13;
+
 	int size;
 	boolean[] accept;
+	transient int firstAccept; // the accept states are numbered from firstAccept to size-1
+	int universalCount; // the last universalCount states accept every continuation, 0 if stored by an older version
+	transient int firstUniversal; // size - universalCount
 	int initial;
-	int[] transitions; // delta(state,c) = transitions[state*points.length + getCharClass(c)]
+	int[] transitions; // delta(state,c) = transitions[state*points.length + getCharClass(c)], null if compressed or narrow
+	short[] transitions16; // the dense table if all targets fit in a short, else null
+	byte[] transitions8; // the dense table if all targets fit in a byte, else null
+	int[] defaults; // compressed table: per state, the target of the classes without an entry in next
+	int[] base; // compressed table: per state, the offset of its row in next and check
+	int[] next; // compressed table: delta(state,c) = next[base[state]+c] if check[base[state]+c] == state
+	int[] check; // compressed table: the state that owns each entry of next, -1 if none
 	char[] points; // char interval start points
-	int[] classmap; // map from char number to class class
+	int[] pagebase; // per page of 256 chars, the char class of its first char; null if not tableized
+	byte[][] pages; // per page of 256 chars, the char classes relative to the page base
+	long pairBudget; // most bytes for the pair table, 0 if not used
+	transient int[] pairs; // delta on two chars, see setPairs, null if not used
+
+	transient RunAutomaton search; // built on demand, see getSearchAutomaton
+	transient RunAutomaton prefixReverse; // built on demand, see getPrefixReverseAutomaton
+	transient RequiredFactor required; // found on demand, see getRequiredFactor
+	transient boolean requiredDone;
+	transient EscapeSet escape; // found on demand, see getInitialEscapeSet
+	transient boolean escapeDone;
 
 	/** 
 	 * Sets alphabet table for optimal run performance. 
+	 * <p>
+	 * The table is split into pages of 256 chars. Since char classes are
+	 * increasing, each page fits in a byte array relative to the class of its
+	 * first char, and pages with identical contents are shared. This takes a
+	 * few kilobytes where a flat table would take 256 KB.
 	 */
 	void setAlphabet() {
-		classmap = new int[Character.MAX_VALUE - Character.MIN_VALUE + 1];
+		pagebase = new int[256];
+		pages = new byte[256][];
+		Map<ByteBuffer, byte[]> pagemap = new HashMap<ByteBuffer, byte[]>();
 		int i = 0;
-		for (int j = 0; j <= Character.MAX_VALUE - Character.MIN_VALUE; j++) {
-			if (i + 1 < points.length && j == points[i + 1])
-				i++;
-			classmap[j] = i;
+		for (int p = 0; p < 256; p++) {
+			byte[] page = new byte[256];
+			for (int j = 0; j < 256; j++) {
+				if (i + 1 < points.length && (p << 8 | j) == points[i + 1])
+					i++;
+				if (j == 0)
+					pagebase[p] = i;
+				page[j] = (byte)(i - pagebase[p]);
+			}
+			byte[] shared = pagemap.get(ByteBuffer.wrap(page));
+			if (shared == null) {
+				shared = page;
+				pagemap.put(ByteBuffer.wrap(page), page);
+			}
+			pages[p] = shared;
 		}
 	}
 
@@ -80,7 +141,7 @@ public class RunAutomaton implements Serializable {
 			else
 				b.append(" [reject]:\n");
 			for (int j = 0; j < points.length; j++) {
-				int k = transitions[i * points.length + j];
+				int k = delta(i, j);
 				if (k != -1) {
 					char min = points[j];
 					char max;
@@ -112,7 +173,14 @@ public class RunAutomaton implements Serializable {
 	 * Returns acceptance status for given state. 
 	 */
 	public boolean isAccept(int state) {
-		return accept[state];
+		return state >= firstAccept;
+	}
+
+	/**
+	 * Returns true if every string is accepted from the given state.
+	 */
+	final boolean isUniversal(int state) {
+		return state >= firstUniversal;
 	}
 
 	/** 
@@ -134,7 +202,9 @@ public class RunAutomaton implements Serializable {
 	 * Gets character class of given char. 
 	 */
 	int getCharClass(char c) {
-		return SpecialOperations.findIndex(c, points);
+		if (pagebase == null)
+			return SpecialOperations.findIndex(c, points);
+		return pagebase[c >>> 8] + (pages[c >>> 8][c & 0xff] & 0xff);
 	}
 
 	@SuppressWarnings("unused")
@@ -208,30 +278,112 @@ public class RunAutomaton implements Serializable {
 	 *                              could be accepted to a specific int value.
 	 */
 	protected RunAutomaton(Automaton a, boolean tableize, Integer overrideAcceptedTransition) {
+		this(a, tableize, overrideAcceptedTransition, null);
+	}
+
+	/**
+	 * Constructs a new <code>RunAutomaton</code>.
+	 * @param compress if true, the transition table is stored in compressed
+	 *                 form, if false as a dense table, and if null the form
+	 *                 is chosen based on the estimated table sizes
+	 * @see #RunAutomaton(Automaton, boolean, Integer)
+	 */
+	RunAutomaton(Automaton a, boolean tableize, Integer overrideAcceptedTransition, Boolean compress) {
 		a.determinize();
 		points = a.getStartPoints();
 		Set<State> states = a.getStates();
-		Automaton.setStateNumbers(states);
+		// number the accept states last, and the universal states, from which
+		// every continuation is accepted, after them, so that acceptance and
+		// universality are single compares
+		Set<State> universal = getUniversalStates(states);
+		int number = 0;
+		for (State s : states)
+			if (!s.accept)
+				s.number = number++;
+		firstAccept = number;
+		for (State s : states)
+			if (s.accept && !universal.contains(s))
+				s.number = number++;
+		firstUniversal = number;
+		for (State s : universal)
+			s.number = number++;
 		initial = a.initial.number;
 		size = states.size();
+		universalCount = size - firstUniversal;
 		accept = new boolean[size];
-		transitions = new int[size * points.length];
+		// transitions to dead states, from which no accept state is reachable, are left out
+		boolean[] live = new boolean[size];
+		for (State s : a.getLiveStates())
+			live[s.number] = true;
 
 		boolean overrideTransitionWithState = overrideAcceptedTransition != null;
 		int overrideTransition = overrideTransitionWithState ? overrideAcceptedTransition : 0;
 
-		for (int n = 0; n < size * points.length; n++)
-			transitions[n] = -1;
-
+		// collect each row as its most frequent target plus the other entries
+		int[] row = new int[points.length];
+		int[] count = new int[size + 2];
+		int[] rowdefaults = new int[size];
+		int[][] rowclasses = new int[size][];
+		int[][] rowtargets = new int[size][];
+		long entries = 0;
 		for (State s : states) {
 			int n = s.number;
 			accept[n] = s.accept;
+			Arrays.fill(row, -1);
+			for (Transition t : s.transitions) {
+				int k = live[t.to.number] ? transition(t.to, overrideTransitionWithState, overrideTransition) : -1;
+				for (int c = SpecialOperations.findIndex(t.min, points); c < points.length && points[c] <= t.max; c++)
+					row[c] = k;
+			}
+			int d = -1;
+			for (int c = 0; c < points.length; c++)
+				if (++count[row[c] + 2] > count[d + 2])
+					d = row[c];
+			int m = 0;
 			for (int c = 0; c < points.length; c++) {
-				State q = s.step(points[c]);
-				if (q != null)
-					transitions[n * points.length + c] =
-							transition(q, overrideTransitionWithState, overrideTransition);
+				count[row[c] + 2] = 0;
+				if (row[c] != d)
+					m++;
+			}
+			rowdefaults[n] = d;
+			rowclasses[n] = new int[m];
+			rowtargets[n] = new int[m];
+			m = 0;
+			for (int c = 0; c < points.length; c++)
+				if (row[c] != d) {
+					rowclasses[n][m] = c;
+					rowtargets[n][m++] = row[c];
+				}
+			entries += m;
+		}
 
+		if (compress == null) {
+			// the compressed form needs three ints per state plus about two per entry
+			long dense = (long)size * points.length;
+			compress = dense > Integer.MAX_VALUE || (dense > COMPRESS_MIN_SIZE && 3L * size + 2 * entries < dense / 2);
+		}
+		if (compress)
+			pack(rowdefaults, rowclasses, rowtargets);
+		else {
+			// tables that do not fit in the L1 cache as ints use the narrowest
+			// entries that hold all targets, including -1 and the override
+			int min = overrideTransitionWithState ? Math.min(-1, overrideTransition) : -1;
+			int max = overrideTransitionWithState ? Math.max(size - 1, overrideTransition) : size - 1;
+			int length = size * points.length;
+			if (length < NARROW_MIN_SIZE)
+				transitions = new int[length];
+			else if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE)
+				transitions8 = new byte[length];
+			else if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE)
+				transitions16 = new short[length];
+			else
+				transitions = new int[length];
+			for (int n = 0; n < size; n++) {
+				int offset = n * points.length;
+				for (int c = 0; c < points.length; c++)
+					setDense(offset + c, rowdefaults[n]);
+				for (int i = 0; i < rowclasses[n].length; i++)
+					setDense(offset + rowclasses[n][i], rowtargets[n][i]);
 			}
 		}
 
@@ -239,6 +391,104 @@ public class RunAutomaton implements Serializable {
 			setAlphabet();
 	}
 
+	private void setDense(int i, int target) {
+		if (transitions != null)
+			transitions[i] = target;
+		else if (transitions16 != null)
+			transitions16[i] = (short)target;
+		else
+			transitions8[i] = (byte)target;
+	}
+
+	/**
+	 * Returns the accept states from which every continuation is accepted,
+	 * that is, the largest set of accept states with transitions on every
+	 * char that all lead back into the set.
+	 */
+	private static Set<State> getUniversalStates(Set<State> states) {
+		Set<State> universal = new LinkedHashSet<State>();
+		for (State s : states)
+			if (s.accept) {
+				int next = Character.MIN_VALUE;
+				for (Transition t : s.getSortedTransitions(false))
+					if (t.min <= next)
+						next = Math.max(next, t.max + 1);
+				if (next > Character.MAX_VALUE)
+					universal.add(s);
+			}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Iterator<State> i = universal.iterator(); i.hasNext();)
+				for (Transition t : i.next().transitions)
+					if (!universal.contains(t.to)) {
+						i.remove();
+						changed = true;
+						break;
+					}
+		}
+		return universal;
+	}
+
+	/**
+	 * Stores the given rows as a compressed transition table. The entries that
+	 * differ from the default of their row are placed in a single array
+	 * (<code>next</code>) with rows overlapping as long as their entries do
+	 * not collide, and <code>check</code> records which state owns each
+	 * position. Rows are placed in order of decreasing number of entries at
+	 * the first offset where they fit.
+	 */
+	private void pack(int[] rowdefaults, int[][] rowclasses, int[][] rowtargets) {
+		// sort states by decreasing number of entries
+		int[] start = new int[points.length + 2];
+		for (int n = 0; n < size; n++)
+			start[points.length - rowclasses[n].length + 1]++;
+		for (int i = 1; i < start.length; i++)
+			start[i] += start[i - 1];
+		int[] order = new int[size];
+		for (int n = 0; n < size; n++)
+			order[start[points.length - rowclasses[n].length]++] = n;
+		defaults = rowdefaults;
+		base = new int[size];
+		next = new int[points.length];
+		check = new int[points.length];
+		Arrays.fill(check, -1);
+		BitSet used = new BitSet();
+		int limit = 0;
+		for (int n : order) {
+			int[] classes = rowclasses[n];
+			if (classes.length == 0)
+				continue;
+			int b;
+			int from = classes[0];
+			search: while (true) {
+				int i = used.nextClearBit(from);
+				b = i - classes[0];
+				from = i + 1;
+				for (int j = 1; j < classes.length; j++)
+					if (used.get(b + classes[j]))
+						continue search;
+				break;
+			}
+			base[n] = b;
+			int end = b + classes[classes.length - 1] + 1;
+			if (end + points.length > next.length) {
+				int length = Math.max(next.length * 2, end + points.length);
+				next = Arrays.copyOf(next, length);
+				check = Arrays.copyOf(check, length);
+				Arrays.fill(check, limit, length, -1);
+			}
+			limit = Math.max(limit, end);
+			for (int j = 0; j < classes.length; j++) {
+				used.set(b + classes[j]);
+				next[b + classes[j]] = rowtargets[n][j];
+				check[b + classes[j]] = n;
+			}
+		}
+		next = Arrays.copyOf(next, limit + points.length);
+		check = Arrays.copyOf(check, limit + points.length);
+	}
+
 	/**
 	 * For normal operation, simply return the transitioned to state.
 	 * If the transition is to an accepted state and an override value is provided, then return the
@@ -251,6 +501,121 @@ public class RunAutomaton implements Serializable {
 		return overrideTransitionWithState && q.number != -1 && q.accept ? override : q.number;
 	}
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		sortAccept();
+		firstUniversal = size - universalCount;
+		if (pairBudget > 0)
+			setPairs();
+	}
+
+	/**
+	 * Sets whether the <code>run</code> methods read two chars per step.
+	 * <p>
+	 * This builds a table indexed by a state and the char classes of two
+	 * chars, so that each step does two independent char class lookups and a
+	 * single load that depends on the previous step, instead of two. The
+	 * table has <code>getSize() * n * n</code> int entries for
+	 * <code>n</code> char classes, and is only built if that fits in the given
+	 * budget and in an array, which suits automata with few char classes. The setting is kept
+	 * when the automaton is stored, and the table is rebuilt when it is loaded.
+	 * @param maxBytes most bytes for the table, 0 to not use it
+	 * @return true if the table is used
+	 */
+	public boolean usePairTable(long maxBytes) {
+		pairBudget = maxBytes;
+		return setPairs();
+	}
+
+	/**
+	 * Builds the pair table if it fits in the budget. Each entry is the state
+	 * after the two chars shifted left by one, with the low bit set if the
+	 * state after the first char accepts.
+	 */
+	private boolean setPairs() {
+		pairs = null;
+		long n = points.length;
+		long entries = size * n * n;
+		// beyond the largest array, whatever the budget
+		if (entries > Integer.MAX_VALUE - 8 || 4 * entries > pairBudget)
+			return false;
+		int[] t = new int[(int)entries];
+		for (int q = 0, i = 0; q < size; q++)
+			for (int c1 = 0; c1 < n; c1++) {
+				int m = delta(q, c1);
+				if (m < -1)
+					return false; // overridden accept transitions are not states
+				for (int c2 = 0; c2 < n; c2++, i++) {
+					int r = m == -1 ? -1 : delta(m, c2);
+					if (r < -1)
+						return false;
+					t[i] = r << 1 | (m >= firstAccept ? 1 : 0);
+				}
+			}
+		pairs = t;
+		return true;
+	}
+
+	/**
+	 * Renumbers the states so that the accept states come last and sets
+	 * <code>firstAccept</code>. States are numbered this way when
+	 * constructed, but automata stored by older versions may not be.
+	 */
+	private void sortAccept() {
+		int[] map = new int[size];
+		int n = 0;
+		for (int i = 0; i < size; i++)
+			if (!accept[i])
+				map[i] = n++;
+		firstAccept = n;
+		boolean sorted = true;
+		for (int i = 0; i < size; i++)
+			if (accept[i]) {
+				map[i] = n++;
+				sorted &= map[i] == i;
+			}
+		if (sorted)
+			return;
+		universalCount = 0;
+		initial = map[initial];
+		boolean[] a = new boolean[size];
+		for (int i = 0; i < size; i++)
+			a[map[i]] = accept[i];
+		accept = a;
+		if (defaults != null) {
+			int[] d = new int[size];
+			int[] b = new int[size];
+			for (int i = 0; i < size; i++) {
+				d[map[i]] = defaults[i] < 0 ? defaults[i] : map[defaults[i]];
+				b[map[i]] = base[i];
+			}
+			defaults = d;
+			base = b;
+			for (int i = 0; i < next.length; i++)
+				if (check[i] != -1) {
+					check[i] = map[check[i]];
+					next[i] = next[i] < 0 ? next[i] : map[next[i]];
+				}
+		} else {
+			int[] t = transitions;
+			short[] t16 = transitions16;
+			byte[] t8 = transitions8;
+			int length = size * points.length;
+			if (t != null)
+				transitions = new int[length];
+			else if (t16 != null)
+				transitions16 = new short[length];
+			else
+				transitions8 = new byte[length];
+			for (int i = 0; i < size; i++)
+				for (int c = 0; c < points.length; c++) {
+					int k = i * points.length + c;
+					int target = t != null ? t[k] : t16 != null ? t16[k] : t8[k];
+					setDense(map[i] * points.length + c, target < 0 ? target : map[target]);
+				}
+		}
+	}
+
 	/**
 	 * Returns the state obtained by reading the given char from the given
 	 * state. Returns -1 if not obtaining any such state. (If the original
@@ -259,24 +624,220 @@ public class RunAutomaton implements Serializable {
 	 * transition function.)
 	 */
 	public int step(int state, char c) {
-		if (classmap == null)
-			return transitions[state * points.length + getCharClass(c)];
-		else
-			return transitions[state * points.length + classmap[c - Character.MIN_VALUE]];
+		return delta(state, getCharClass(c));
+	}
+
+	/**
+	 * Returns the state obtained by reading a char of the given character
+	 * class from the given state, or -1 if not obtaining any such state.
+	 */
+	final int delta(int state, int c) {
+		if (transitions != null)
+			return transitions[state * points.length + c];
+		if (transitions16 != null)
+			return transitions16[state * points.length + c];
+		if (transitions8 != null)
+			return transitions8[state * points.length + c];
+		int i = base[state] + c;
+		return check[i] == state ? next[i] : defaults[state];
 	}
 
 	/** 
 	 * Returns true if the given string is accepted by this automaton. 
 	 */
 	public boolean run(String s) {
+		if (pairs != null)
+			return runPairs(s);
+		int p = initial;
+		int l = s.length();
+		for (int i = 0; i < l; i++) {
+			if (p >= firstUniversal)
+				return true;
+			p = step(p, s.charAt(i));
+			if (p == -1)
+				return false;
+		}
+		return p >= firstAccept;
+	}
+
+	/**
+	 * Returns true if the chars of the given string from
+	 * <code>startOffset</code> to <code>endOffset</code> are accepted by this
+	 * automaton. The region is not copied.
+	 * @param s the string
+	 * @param startOffset offset of the first char of the region
+	 * @param endOffset offset after the last char of the region
+	 * @exception IndexOutOfBoundsException if the region is not within the string
+	 */
+	public boolean run(String s, int startOffset, int endOffset) {
+		AutomatonMatcher.checkRegion(s.length(), startOffset, endOffset);
+		int p = initial;
+		for (int i = startOffset; i < endOffset; i++) {
+			if (p >= firstUniversal)
+				return true;
+			p = step(p, s.charAt(i));
+			if (p == -1)
+				return false;
+		}
+		return p >= firstAccept;
+	}
+
+	/**
+	 * Returns true if the chars of the given array from
+	 * <code>startOffset</code> to <code>endOffset</code> are accepted by this
+	 * automaton. The array is read directly, not through
+	 * <code>CharSequence.charAt</code>.
+	 * @param s the chars
+	 * @param startOffset offset of the first char of the region
+	 * @param endOffset offset after the last char of the region
+	 * @exception IndexOutOfBoundsException if the region is not within the array
+	 */
+	public boolean run(char[] s, int startOffset, int endOffset) {
+		AutomatonMatcher.checkRegion(s.length, startOffset, endOffset);
+		int p = initial;
+		for (int i = startOffset; i < endOffset; i++) {
+			if (p >= firstUniversal)
+				return true;
+			p = step(p, s[i]);
+			if (p == -1)
+				return false;
+		}
+		return p >= firstAccept;
+	}
+
+	/**
+	 * Returns true if the remaining chars of the given buffer, from its
+	 * position to its limit, are accepted by this automaton. The position of
+	 * the buffer is not changed. If the buffer is backed by an array, the
+	 * array is read directly.
+	 * @param s the buffer
+	 */
+	public boolean run(CharBuffer s) {
+		if (s.hasArray())
+			return run(s.array(), s.arrayOffset() + s.position(), s.arrayOffset() + s.limit());
+		int p = initial;
+		int l = s.limit();
+		for (int i = s.position(); i < l; i++) {
+			if (p >= firstUniversal)
+				return true;
+			p = step(p, s.get(i));
+			if (p == -1)
+				return false;
+		}
+		return p >= firstAccept;
+	}
+
+	/**
+	 * Returns true if the given char sequence is accepted by this automaton.
+	 * Strings and buffers are run by <code>run(String)</code> and
+	 * <code>run(CharBuffer)</code>, which do not call
+	 * <code>CharSequence.charAt</code>.
+	 */
+	final boolean runChars(CharSequence s) {
+		if (s instanceof String)
+			return run((String)s);
+		if (s instanceof CharBuffer)
+			return run((CharBuffer)s);
 		int p = initial;
 		int l = s.length();
 		for (int i = 0; i < l; i++) {
+			if (p >= firstUniversal)
+				return true;
 			p = step(p, s.charAt(i));
 			if (p == -1)
 				return false;
 		}
-		return accept[p];
+		return p >= firstAccept;
+	}
+
+	/**
+	 * Returns the indexes of the strings of the given array that are accepted
+	 * by this automaton, in increasing order.
+	 * <p>
+	 * The stream is backed by a spliterator that splits the array into
+	 * ranges of equal numbers of strings and runs the automaton over each range
+	 * in a single loop. The indexes are the same whether the stream is
+	 * sequential or parallel.
+	 * @param strings the strings
+	 * @param parallel if true, the stream is parallel
+	 */
+	public IntStream acceptedIndexes(CharSequence[] strings, boolean parallel) {
+		return StreamSupport.intStream(new BatchSpliterator(this, strings, 0, strings.length), parallel);
+	}
+
+	/**
+	 * Runs this automaton on each of the given strings.
+	 * @param strings the strings
+	 * @param results set to true at the indexes of the accepted strings and
+	 *                false elsewhere, of at least the length of <code>strings</code>
+	 * @param parallel if true, the strings are run in parallel in the common
+	 *                 fork-join pool, see {@link #acceptedIndexes(CharSequence[], boolean)}
+	 */
+	public void runAll(CharSequence[] strings, final boolean[] results, boolean parallel) {
+		if (results.length < strings.length)
+			throw new IllegalArgumentException("results is shorter than strings");
+		Arrays.fill(results, 0, strings.length, false);
+		if (!parallel) {
+			for (int i = 0; i < strings.length; i++)
+				results[i] = runChars(strings[i]);
+			return;
+		}
+		// each index is written by a single task
+		acceptedIndexes(strings, true).forEach(new IntConsumer() {
+			public void accept(int i) {
+				results[i] = true;
+			}
+		});
+	}
+
+	/**
+	 * Runs this automaton on each of the given strings.
+	 * @param strings the strings
+	 * @param parallel if true, the strings are run in parallel in the common fork-join pool
+	 * @return the set of indexes of the accepted strings
+	 */
+	public BitSet runAll(CharSequence[] strings, boolean parallel) {
+		boolean[] results = new boolean[strings.length];
+		runAll(strings, results, parallel);
+		BitSet b = new BitSet(strings.length);
+		for (int i = 0; i < results.length; i++)
+			if (results[i])
+				b.set(i);
+		return b;
+	}
+
+	/**
+	 * Runs this automaton on each of the given strings.
+	 * @param strings the strings
+	 * @param parallel if true, the strings are run in parallel in the common fork-join pool
+	 * @return the set of indexes in the list of the accepted strings
+	 */
+	public BitSet runAll(List<? extends CharSequence> strings, boolean parallel) {
+		return runAll(strings.toArray(new CharSequence[strings.size()]), parallel);
+	}
+
+	/**
+	 * Runs this automaton on each string of the given stream, in parallel if
+	 * the stream is parallel.
+	 * @param strings the strings
+	 * @return the set of indexes in encounter order of the accepted strings
+	 */
+	public BitSet runAll(Stream<? extends CharSequence> strings) {
+		boolean parallel = strings.isParallel();
+		List<? extends CharSequence> list = strings.collect(Collectors.<CharSequence>toList());
+		return runAll(list, parallel);
+	}
+
+	/**
+	 * Returns true if the given string is accepted by this automaton, running
+	 * chunks of long strings in parallel in the common fork-join pool.
+	 * Strings shorter than a few times {@value ParallelRun#MIN_CHUNK} chars
+	 * are run sequentially, and so is the rest of a string if the runs of a
+	 * chunk from the different states do not soon agree.
+	 */
+	public boolean runParallel(CharSequence s) {
+		int p = ParallelRun.run(this, false, s);
+		return p != -1 && p >= firstAccept;
 	}
 
 	/**
@@ -287,11 +848,15 @@ public class RunAutomaton implements Serializable {
 	 * @return length of the longest accepted run, -1 if no run is accepted
 	 */
 	public int run(String s, int offset) {
+		if (pairs != null)
+			return runPairs(s, offset);
 		int p = initial;
 		int l = s.length();
 		int max = -1;
 		for (int r = 0; offset <= l; offset++, r++) {
-			if (accept[p])
+			if (p >= firstUniversal)
+				return r + l - offset;
+			if (p >= firstAccept)
 				max = r;
 			if (offset == l)
 				break;
@@ -302,6 +867,170 @@ public class RunAutomaton implements Serializable {
 		return max;
 	}
 
+	/**
+	 * Same as <code>run(String)</code> using the pair table.
+	 */
+	private boolean runPairs(String s) {
+		int[] pairs = this.pairs;
+		int n = points.length;
+		int p = initial;
+		int l = s.length();
+		int i = 0;
+		for (; i + 1 < l; i += 2) {
+			if (p >= firstUniversal)
+				return true;
+			p = pairs[(p * n + getCharClass(s.charAt(i))) * n + getCharClass(s.charAt(i + 1))] >> 1;
+			if (p == -1)
+				return false;
+		}
+		if (i < l && p < firstUniversal) {
+			// odd length, the last char is a single step
+			p = step(p, s.charAt(i));
+			if (p == -1)
+				return false;
+		}
+		return p >= firstAccept;
+	}
+
+	/**
+	 * Same as <code>run(String, int)</code> using the pair table.
+	 */
+	private int runPairs(String s, int offset) {
+		int[] pairs = this.pairs;
+		int n = points.length;
+		int p = initial;
+		int l = s.length();
+		int max = -1;
+		if (offset > l)
+			return max;
+		for (int i = offset; ; i += 2) {
+			if (p >= firstUniversal)
+				return l - offset;
+			if (p >= firstAccept)
+				max = i - offset;
+			if (i + 1 < l) {
+				int e = pairs[(p * n + getCharClass(s.charAt(i))) * n + getCharClass(s.charAt(i + 1))];
+				// accepted after the first char of the pair
+				if ((e & 1) != 0)
+					max = i + 1 - offset;
+				p = e >> 1;
+				if (p == -1)
+					break;
+			} else {
+				if (i < l) {
+					p = step(p, s.charAt(i));
+					if (p >= firstAccept)
+						max = i + 1 - offset;
+				}
+				break;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns a deterministic <code>Automaton</code> with the same states and
+	 * transitions as this automaton.
+	 */
+	Automaton toAutomaton() {
+		State[] states = new State[size];
+		for (int n = 0; n < size; n++) {
+			states[n] = new State();
+			states[n].accept = accept[n];
+		}
+		for (int n = 0; n < size; n++)
+			for (int c = 0; c < points.length; c++) {
+				int k = delta(n, c);
+				if (k != -1) {
+					char max;
+					if (c + 1 < points.length)
+						max = (char)(points[c + 1] - 1);
+					else
+						max = Character.MAX_VALUE;
+					states[n].transitions.add(new Transition(points[c], max, states[k]));
+				}
+			}
+		Automaton a = new Automaton();
+		a.initial = states[initial];
+		a.deterministic = true;
+		a.reduce();
+		return a;
+	}
+
+	/**
+	 * Returns a run automaton for the strings that end with a string accepted
+	 * by this automaton (that is, the language prefixed by <code>.*</code>).
+	 * Built on first use from {@link #makeSearch(Automaton)}, so it is in its
+	 * initial state only when no suffix of the chars read can be extended to
+	 * a match.
+	 */
+	synchronized RunAutomaton getSearchAutomaton() {
+		if (search == null)
+			search = new RunAutomaton(makeSearch(toAutomaton()), pagebase != null);
+		return search;
+	}
+
+	/**
+	 * Returns an automaton for the strings that end with a string accepted by
+	 * the given automaton. It is built without minimization, even if
+	 * {@link Automaton#setMinimizeAlways(boolean)} is set, since minimization
+	 * could merge the initial state with a state in which a match is under
+	 * way: determinized, the initial state is then the only state in which
+	 * the nondeterministic automaton is in its initial state alone.
+	 */
+	static Automaton makeSearch(Automaton a) {
+		Automaton b = a.cloneExpanded();
+		State p = new State();
+		p.addTransition(new Transition(Character.MIN_VALUE, Character.MAX_VALUE, p));
+		p.addEpsilon(b.initial);
+		b.initial = p;
+		b.deterministic = false;
+		b.clearHashCode();
+		return b;
+	}
+
+	/**
+	 * Returns a string that occurs in every accepted string, with the most
+	 * chars an accepted string can have before it, or null if none is found.
+	 * Found on first use.
+	 */
+	synchronized RequiredFactor getRequiredFactor() {
+		if (!requiredDone) {
+			required = RequiredFactor.of(toAutomaton());
+			requiredDone = true;
+		}
+		return required;
+	}
+
+	/**
+	 * Returns the chars that leave the initial state, or null if too many of
+	 * them do. Found on first use.
+	 */
+	synchronized EscapeSet getInitialEscapeSet() {
+		if (!escapeDone) {
+			escape = EscapeSet.of(this, initial);
+			escapeDone = true;
+		}
+		return escape;
+	}
+
+	/**
+	 * Returns a run automaton for the reverse of the prefix closure of the
+	 * language of this automaton. Reading a string backwards from position
+	 * <code>end</code> to <code>i</code>, the automaton accepts if and only if
+	 * the chars from <code>i</code> to <code>end</code> can be extended to an
+	 * accepted string. Built on first use.
+	 */
+	synchronized RunAutomaton getPrefixReverseAutomaton() {
+		if (prefixReverse == null) {
+			Automaton a = toAutomaton();
+			SpecialOperations.prefixClose(a);
+			SpecialOperations.reverse(a);
+			prefixReverse = new RunAutomaton(a, pagebase != null);
+		}
+		return prefixReverse;
+	}
+
 	/**
 	 * Creates a new automaton matcher for the given input.
 	 * @param s the CharSequence to search
@@ -312,13 +1041,80 @@ public class RunAutomaton implements Serializable {
 	}
 
 	/**
-	 * Creates a new automaton matcher for the given input.
+	 * Creates a new automaton matcher for the given input. The region is not
+	 * copied, and the offsets of matches are relative to its start.
 	 * @param s the CharSequence to search
 	 * @param startOffset the starting offset of the given character sequence
 	 * @param endOffset the ending offset of the given character sequence
 	 * @return A new automaton matcher for the given input
 	 */
 	public AutomatonMatcher newMatcher(CharSequence s, int startOffset, int endOffset)  {
-		return new AutomatonMatcher(s.subSequence(startOffset, endOffset), this);
+		AutomatonMatcher.checkRegion(s.length(), startOffset, endOffset);
+		return new AutomatonMatcher(s, this, startOffset, endOffset);
+	}
+
+	/**
+	 * Creates a new automaton matcher for the given region of a char array,
+	 * which is read directly. The array is not copied, and the offsets of
+	 * matches are relative to the start of the region.
+	 * @param s the chars to search
+	 * @param startOffset offset of the first char of the region
+	 * @param endOffset offset after the last char of the region
+	 * @return A new automaton matcher for the given input
+	 */
+	public AutomatonMatcher newMatcher(char[] s, int startOffset, int endOffset)  {
+		return new AutomatonMatcher("", this).reset(s, startOffset, endOffset);
+	}
+
+	/**
+	 * Creates a new scanner that is fed the input in chunks and tells whether
+	 * the chars fed so far are accepted.
+	 * @return A new scanner at the start of the input
+	 */
+	public AutomatonScanner newScanner() {
+		return new AutomatonScanner(this, false, null, initial, 0);
+	}
+
+	/**
+	 * Creates a scanner that continues from a snapshot of a scanner of this
+	 * automaton.
+	 * @param state the state of the snapshot, see {@link AutomatonScanner#getState()}
+	 * @param offset the offset of the snapshot, see {@link AutomatonScanner#getOffset()}
+	 * @return A new scanner in the given state
+	 * @exception IllegalArgumentException if the state is not a state of this automaton
+	 */
+	public AutomatonScanner resumeScanner(int state, long offset) {
+		return new AutomatonScanner(this, false, null, state, offset);
+	}
+
+	/**
+	 * Creates a new matcher that reads its input from the given reader,
+	 * keeping at most {@link StreamAutomatonMatcher#DEFAULT_MAX_WINDOW} chars.
+	 * @param in the reader to search
+	 * @return A new matcher for the given input
+	 */
+	public StreamAutomatonMatcher newStreamMatcher(Reader in) {
+		return new StreamAutomatonMatcher(this, in, StreamAutomatonMatcher.DEFAULT_MAX_WINDOW);
+	}
+
+	/**
+	 * Creates a new matcher that reads its input from the given reader.
+	 * @param in the reader to search
+	 * @param maxWindow the largest number of chars kept at any time
+	 * @return A new matcher for the given input
+	 */
+	public StreamAutomatonMatcher newStreamMatcher(Reader in, int maxWindow) {
+		return new StreamAutomatonMatcher(this, in, maxWindow);
+	}
+
+	/**
+	 * Creates a new matcher that reads its input from the given channel,
+	 * decoding it with the given charset. Offsets are counted in decoded chars.
+	 * @param in the channel to search
+	 * @param cs the charset of the bytes in the channel
+	 * @return A new matcher for the given input
+	 */
+	public StreamAutomatonMatcher newStreamMatcher(ReadableByteChannel in, Charset cs) {
+		return newStreamMatcher(Channels.newReader(in, cs.newDecoder(), -1));
 	}
 }
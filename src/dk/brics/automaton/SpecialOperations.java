@@ -554,6 +554,19 @@ final public class SpecialOperations {
 		return b.toString();
 	}
 	
+	/**
+	 * Returns a string that occurs in every accepted string. The string is
+	 * found at a state that every accepting path visits, by following the
+	 * single chars that all paths read just before and after that state.
+	 * It is the longest such string found, but not necessarily the longest
+	 * string that occurs in every accepted string.
+	 * @return required substring, or the empty string if none is found
+	 */
+	public static String getRequiredSubstring(Automaton a) {
+		RequiredFactor f = RequiredFactor.of(a);
+		return f != null ? f.literal : "";
+	}
+	
 	/**
 	 * Prefix closes the given automaton.
 	 */
@@ -0,0 +1,324 @@
+package dk.brics.automaton;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A tool that finds matches of a compiled automaton in a stream of chars
+ * read from a {@link Reader}, with the same results as
+ * {@link AutomatonMatcher} on the whole input.
+ *
+ * <p>The chars are read into a window that only holds the chars that may
+ * still be part of a match: from the last position where the search
+ * automaton was idle, or from the end of the match found so far, up to the
+ * lookahead needed to find the end of the longest match. Chars before that
+ * are dropped, so memory does not depend on the length of the input, only
+ * on the length of the candidates. The window grows from a small initial
+ * size to at most a given maximum; if a candidate does not fit, an
+ * <code>IOException</code> is thrown.
+ *
+ * <p>Offsets are <code>long</code> values counted in chars from the start
+ * of the stream.
+ *
+ * @see RunAutomaton#newStreamMatcher(Reader)
+ * @see RunAutomaton#newStreamMatcher(Reader, int)
+ */
+public class StreamAutomatonMatcher {
+
+	/** Default largest number of chars kept in the window. */
+	public static final int DEFAULT_MAX_WINDOW = 1 << 20;
+
+	/** Initial number of chars in the window. */
+	static final int INITIAL_WINDOW = 1 << 13;
+
+	StreamAutomatonMatcher(final RunAutomaton automaton, final Reader in, final int maxWindow) {
+		if (maxWindow < 1) {
+			throw new IllegalArgumentException("maxWindow must be positive");
+		}
+		this.automaton = automaton;
+		this.in = in;
+		this.maxWindow = maxWindow;
+		this.window = new char[Math.min(INITIAL_WINDOW, maxWindow)];
+		this.view = CharBuffer.wrap(window);
+	}
+
+	private final RunAutomaton automaton;
+	private final Reader in;
+	private final int maxWindow;
+
+	private char[] window; // the chars from offset base on
+	private CharBuffer view; // the window as a CharSequence
+	private long base; // offset of window[0] in the stream
+	private int limit; // number of chars in the window
+	private boolean eof;
+	private long keep; // chars before this offset may be dropped
+
+	private long idle; // set by earliestMatchEnd, no match starts before it
+	private long[] candidates; // candidate match starts, reused by find()
+	private CandidateRuns runs; // runs from the candidates, allocated on first use
+	private boolean done;
+
+	private long matchStart = -1;
+	private long matchEnd = -1;
+
+	/**
+	 * Find the next matching subsequence of the stream.
+	 * <br>
+	 * This also updates the values for the {@code start} and {@code end}
+	 * methods.
+	 *
+	 * @return {@code true} if there is a matching subsequence.
+	 * @throws IOException if reading fails, or if a candidate match does
+	 *  not fit in the largest window.
+	 */
+	public boolean find() throws IOException {
+		if (done) {
+			return false;
+		}
+		long begin = 0;
+		if (matchStart != -1) {
+			begin = matchEnd;
+			// after an empty match, the next one starts at least one char later
+			if (matchStart == matchEnd) {
+				keep = begin;
+				if (charAt(begin) == -1) {
+					return noMatch();
+				}
+				begin++;
+			}
+		}
+		keep = begin;
+		long start = -1;
+		long end = -1;
+		if (automaton.isAccept(automaton.getInitialState())) {
+			start = begin;
+			end = longestMatchEnd(begin);
+		} else {
+			// as in AutomatonMatcher, scan backwards from the earliest match end
+			// for the starts from which the chars up to it can be extended to a
+			// match, and run from all of them at once to find the leftmost that
+			// starts a match
+			long e = earliestMatchEnd(begin);
+			if (e != -1) {
+				RunAutomaton reverse = automaton.getPrefixReverseAutomaton();
+				int n = 0;
+				int p = reverse.getInitialState();
+				for (long i = e - 1; i >= idle; i--) {
+					p = reverse.step(p, window[(int)(i - base)]);
+					if (p == -1) {
+						break;
+					}
+					if (reverse.isAccept(p)) {
+						if (candidates == null) {
+							candidates = new long[16];
+						} else if (n == candidates.length) {
+							candidates = Arrays.copyOf(candidates, n * 2);
+						}
+						candidates[n++] = i;
+					}
+				}
+				if (n > 0) {
+					if (runs == null) {
+						runs = new CandidateRuns(automaton);
+					}
+					runs.clear();
+					int k = n - 1;
+					long i = candidates[k];
+					for (; ; i++) {
+						if (k >= 0 && candidates[k] == i) {
+							runs.add(candidates[k--]);
+						}
+						if (!runs.accept(i)) {
+							if (runs.matchStart != -1 || k < 0) {
+								break;
+							}
+							i = candidates[k] - 1;
+							continue;
+						}
+						// the chars before the end of the match so far, or before
+						// the runs if there is none, are not read again
+						keep = runs.matchStart != -1 ? runs.matchEnd : i;
+						int c = charAt(i);
+						if (c == -1) {
+							break;
+						}
+						runs.step(automaton.getCharClass((char)c));
+					}
+					if (runs.matchStart != -1) {
+						start = runs.matchStart;
+						end = runs.matchEnd;
+						if (end == CandidateRuns.TO_END) {
+							// the match extends to the end of the stream
+							while (charAt(i) != -1) {
+								keep = ++i;
+							}
+							end = i;
+						}
+					}
+				}
+			}
+		}
+		if (start == -1) {
+			return noMatch();
+		}
+		matchStart = start;
+		matchEnd = end;
+		return true;
+	}
+
+	private boolean noMatch() {
+		done = true;
+		matchStart = matchEnd = -1;
+		return false;
+	}
+
+	/**
+	 * Returns the end of the first match found when scanning forward from
+	 * <code>begin</code> with the search automaton, or -1 if there is none.
+	 * The chars read while the search automaton is in its initial state are
+	 * not kept.
+	 */
+	private long earliestMatchEnd(final long begin) throws IOException {
+		RunAutomaton search = automaton.getSearchAutomaton();
+		EscapeSet escape = search.getInitialEscapeSet();
+		int initial = search.getInitialState();
+		int p = initial;
+		for (long i = begin; ; i++) {
+			if (p == initial) {
+				keep = i;
+				if (escape != null) {
+					while (true) {
+						if (i - base >= limit && !fill()) {
+							return -1;
+						}
+						int j = escape.next(view, (int)(i - base), limit);
+						i = base + j;
+						keep = i;
+						if (j < limit) {
+							break;
+						}
+					}
+				}
+				idle = i;
+			}
+			int c = charAt(i);
+			if (c == -1) {
+				return -1;
+			}
+			p = search.step(p, (char)c);
+			if (p == -1) {
+				return -1;
+			}
+			if (search.isAccept(p)) {
+				return i + 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the end of the longest match starting at <code>start</code>,
+	 * or -1 if there is none. Once a match is found, only the chars after
+	 * its end are kept.
+	 */
+	private long longestMatchEnd(final long start) throws IOException {
+		int p = automaton.getInitialState();
+		long max = -1;
+		for (long i = start; ; i++) {
+			if (automaton.isAccept(p)) {
+				max = i;
+				keep = i;
+			}
+			if (automaton.isUniversal(p)) {
+				// the match extends to the end of the stream
+				while (charAt(i) != -1) {
+					keep = ++i;
+				}
+				return i;
+			}
+			int c = charAt(i);
+			if (c == -1) {
+				break;
+			}
+			p = automaton.step(p, (char)c);
+			if (p == -1) {
+				break;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the char at the given offset, reading as needed, or -1 at the
+	 * end of the stream.
+	 */
+	private int charAt(final long offset) throws IOException {
+		while (offset - base >= limit) {
+			if (!fill()) {
+				return -1;
+			}
+		}
+		return window[(int)(offset - base)];
+	}
+
+	/**
+	 * Reads more chars into the window, first dropping the chars before
+	 * <code>keep</code> or growing the window if it is full. Returns false at
+	 * the end of the stream.
+	 */
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (limit == window.length) {
+			int drop = (int)(keep - base);
+			if (drop < window.length / 2 && window.length < maxWindow) {
+				window = Arrays.copyOf(window, (int)Math.min(2L * window.length, maxWindow));
+				view = CharBuffer.wrap(window);
+			} else if (drop > 0) {
+				System.arraycopy(window, drop, window, 0, limit - drop);
+				limit -= drop;
+				base += drop;
+			} else {
+				throw new IOException("Match candidate does not fit in a window of " + maxWindow + " chars.");
+			}
+		}
+		int n = in.read(window, limit, window.length - limit);
+		if (n == -1) {
+			eof = true;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+
+	/**
+	 * Returns the offset after the last character matched.
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public long end() throws IllegalStateException {
+		matchGood();
+		return matchEnd;
+	}
+
+	/**
+	 * Returns the offset of the first character matched.
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public long start() throws IllegalStateException {
+		matchGood();
+		return matchStart;
+	}
+
+	/** Helper method to check that the last match attempt was valid. */
+	private void matchGood() throws IllegalStateException {
+		if ((matchStart < 0) || (matchEnd < 0)) {
+			throw new IllegalStateException("There was no available match.");
+		}
+	}
+}
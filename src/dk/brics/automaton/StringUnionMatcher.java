@@ -0,0 +1,109 @@
+package dk.brics.automaton;
+
+/**
+ * A tool that finds occurrences of a set of strings in a given text using a
+ * {@link StringUnionSearcher}.
+ *
+ * <p>Occurrences are found in order of their end index, and occurrences with
+ * the same end index from the longest to the shortest. In non-overlapping
+ * mode, only the longest occurrence that ends first is reported, and the
+ * search continues after it.
+ *
+ * @see StringUnionSearcher#newMatcher(CharSequence, int, int, boolean)
+ */
+public class StringUnionMatcher {
+
+	StringUnionMatcher(final StringUnionSearcher searcher, final CharSequence chars, final int startOffset, final int endOffset, final boolean overlapping) {
+		this.searcher = searcher;
+		this.chars = chars;
+		this.pos = startOffset;
+		this.endOffset = endOffset;
+		this.overlapping = overlapping;
+	}
+
+	private final StringUnionSearcher searcher;
+	private final CharSequence chars;
+	private final int endOffset;
+	private final boolean overlapping;
+
+	private int pos; // index of the next char to read
+	private int state;
+	private int pending = -1; // the next state on the output path to report
+
+	private int matchTerm = -1;
+	private int matchEnd = -1;
+
+	/**
+	 * Find the next occurrence in the text.
+	 * <br>
+	 * This also updates the values for the {@code start}, {@code end} and
+	 * {@code term} methods.
+	 *
+	 * @return {@code true} if there is an occurrence.
+	 */
+	public boolean find() {
+		StringUnionSearcher s = searcher;
+		if (pending == -1) {
+			while (pos < endOffset) {
+				state = s.step(state, chars.charAt(pos++));
+				pending = s.term[state] != -1 ? state : s.output[state];
+				if (pending != -1)
+					break;
+			}
+			if (pending == -1) {
+				matchTerm = matchEnd = -1;
+				return false;
+			}
+		}
+		matchTerm = s.term[pending];
+		matchEnd = pos;
+		if (overlapping)
+			pending = s.output[pending];
+		else {
+			pending = -1;
+			state = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the id of the string of the last occurrence found, which is its
+	 * index in the input to the searcher.
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public int term() throws IllegalStateException {
+		matchGood();
+		return matchTerm;
+	}
+
+	/**
+	 * Returns the offset of the first character of the last occurrence found.
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public int start() throws IllegalStateException {
+		matchGood();
+		return matchEnd - searcher.lengths[matchTerm];
+	}
+
+	/**
+	 * Returns the offset after the last character of the last occurrence found.
+	 *
+	 * @throws IllegalStateException if there has not been a match attempt or
+	 *  if the last attempt yielded no results.
+	 */
+	public int end() throws IllegalStateException {
+		matchGood();
+		return matchEnd;
+	}
+
+	/** Helper method to check that the last match attempt was valid. */
+	private void matchGood() throws IllegalStateException {
+		if (matchTerm < 0) {
+			throw new IllegalStateException("There was no available match.");
+		}
+	}
+}
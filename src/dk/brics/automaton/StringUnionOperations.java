@@ -8,6 +8,7 @@ import java.util.IdentityHashMap;
 /**
  * Operations for building minimal deterministic automata from sets of strings. 
  * The algorithm requires sorted input data, but is very fast (nearly linear with the input size).
+ * To search text for occurrences of the strings, see {@link StringUnionSearcher}.
  * 
  * @author Dawid Weiss
  */
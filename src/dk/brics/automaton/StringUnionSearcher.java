@@ -0,0 +1,252 @@
+package dk.brics.automaton;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Searches text for occurrences of any of a set of strings, in the manner of
+ * Aho and Corasick.
+ *
+ * <p>Like {@link StringUnionOperations#build(CharSequence[])}, this takes
+ * sorted input and builds the trie of the strings in a single pass. The
+ * trie is not minimized, since each state needs a unique prefix for its
+ * failure link, which leads to the state of the longest proper suffix of
+ * that prefix that is also in the trie. States are numbered breadth-first,
+ * so the children of a state are consecutive and the whole trie, with
+ * failure and output links, is stored in a few primitive arrays.
+ *
+ * <p>A search reads each char once, and the failure links are followed at
+ * most once per char on average, so it takes linear time in the length of
+ * the text plus the number of occurrences reported.
+ *
+ * @see StringUnionMatcher
+ */
+public class StringUnionSearcher implements Serializable {
+
+	static final long serialVersionUID = 100001;
+
+	final int size; // number of states, state 0 is the root
+	final char[] label; // per state, the char on the transition into it
+	final int[] first; // per state, the first of its children, which are first[s] to first[s+1]-1
+	final int[] fail; // per state, the state of the longest proper suffix in the trie
+	final int[] term; // per state, the id of the string it ends, or -1
+	final int[] output; // per state, the nearest state on its failure path that ends a string, or -1
+	final int[] rootnext; // the successor of the root for each char below 256
+	final int[] lengths; // per string id, the length of the string
+
+	/**
+	 * Constructs a new <code>StringUnionSearcher</code>. The id of each
+	 * string is its index in the input. If a string occurs more than once,
+	 * its first index is used.
+	 * @param input nonempty strings, sorted by {@link StringUnionOperations#LEXICOGRAPHIC_ORDER}
+	 * @exception IllegalArgumentException if a string is empty or the input is not sorted
+	 */
+	public StringUnionSearcher(CharSequence[] input) throws IllegalArgumentException {
+		// build the trie in insertion order, with the children of each state in a linked list
+		int capacity = 16;
+		char[] labels = new char[capacity];
+		int[] firstChild = new int[capacity];
+		int[] lastChild = new int[capacity];
+		int[] sibling = new int[capacity];
+		int[] terms = new int[capacity];
+		firstChild[0] = lastChild[0] = sibling[0] = terms[0] = -1;
+		int n = 1;
+		int[] path = new int[16]; // the states of the previous string
+		CharSequence previous = "";
+		lengths = new int[input.length];
+		for (int id = 0; id < input.length; id++) {
+			CharSequence current = input[id];
+			int len = current.length();
+			if (len == 0)
+				throw new IllegalArgumentException("input strings must not be empty");
+			int p = 0;
+			int max = Math.min(previous.length(), len);
+			while (p < max && previous.charAt(p) == current.charAt(p))
+				p++;
+			if (p < max ? previous.charAt(p) > current.charAt(p) : previous.length() > len)
+				throw new IllegalArgumentException("input must be sorted: " + previous + " > " + current);
+			if (path.length <= len)
+				path = Arrays.copyOf(path, Math.max(len + 1, path.length * 2));
+			int state = path[p];
+			for (int i = p; i < len; i++) {
+				if (n == capacity) {
+					capacity *= 2;
+					labels = Arrays.copyOf(labels, capacity);
+					firstChild = Arrays.copyOf(firstChild, capacity);
+					lastChild = Arrays.copyOf(lastChild, capacity);
+					sibling = Arrays.copyOf(sibling, capacity);
+					terms = Arrays.copyOf(terms, capacity);
+				}
+				labels[n] = current.charAt(i);
+				firstChild[n] = lastChild[n] = sibling[n] = terms[n] = -1;
+				if (lastChild[state] == -1)
+					firstChild[state] = n;
+				else
+					sibling[lastChild[state]] = n;
+				lastChild[state] = n;
+				state = n++;
+				path[i + 1] = state;
+			}
+			if (terms[state] == -1)
+				terms[state] = id;
+			lengths[id] = len;
+			previous = current;
+		}
+		lastChild = null;
+
+		// renumber breadth-first, which makes the children of each state consecutive
+		size = n;
+		int[] order = new int[n]; // old number of each new state
+		first = new int[n + 1];
+		int m = 1;
+		for (int s = 0; s < n; s++) {
+			int old = order[s];
+			first[s] = m;
+			for (int c = firstChild[old]; c != -1; c = sibling[c])
+				order[m++] = c;
+		}
+		first[n] = m;
+		label = new char[n];
+		term = new int[n];
+		for (int s = 0; s < n; s++) {
+			label[s] = labels[order[s]];
+			term[s] = terms[order[s]];
+		}
+
+		// failure and output links, breadth-first so that shorter prefixes are done first
+		fail = new int[n];
+		output = new int[n];
+		output[0] = -1;
+		for (int u = 0; u < n; u++)
+			for (int v = first[u]; v < first[u + 1]; v++) {
+				int f = 0;
+				if (u != 0) {
+					f = fail[u];
+					int g;
+					while ((g = child(f, label[v])) == -1 && f != 0)
+						f = fail[f];
+					f = g == -1 ? 0 : g;
+				}
+				fail[v] = f;
+				output[v] = term[f] != -1 ? f : output[f];
+			}
+
+		rootnext = new int[256];
+		for (int c = 0; c < rootnext.length; c++) {
+			int g = child(0, (char)c);
+			rootnext[c] = g == -1 ? 0 : g;
+		}
+	}
+
+	/**
+	 * Returns the child of the given state on the given char, or -1 if none.
+	 */
+	int child(int s, char c) {
+		int a = first[s];
+		int b = first[s + 1] - 1;
+		while (a <= b) {
+			int d = (a + b) >>> 1;
+			if (label[d] < c)
+				a = d + 1;
+			else if (label[d] > c)
+				b = d - 1;
+			else
+				return d;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the state after reading the given char in the given state,
+	 * following failure links as needed.
+	 */
+	int step(int s, char c) {
+		while (true) {
+			if (s == 0)
+				return c < 256 ? rootnext[c] : Math.max(child(0, c), 0);
+			int g = child(s, c);
+			if (g != -1)
+				return g;
+			s = fail[s];
+		}
+	}
+
+	/**
+	 * Returns the number of strings in the input, including duplicates.
+	 */
+	public int getStringCount() {
+		return lengths.length;
+	}
+
+	/**
+	 * Returns the number of states of the trie.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns true if any of the strings occurs in the given text. The scan
+	 * stops at the end of the first occurrence.
+	 */
+	public boolean matches(CharSequence s) {
+		int p = 0;
+		for (int i = 0, l = s.length(); i < l; i++) {
+			p = step(p, s.charAt(i));
+			if (term[p] != -1 || output[p] != -1)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a new matcher that reports every occurrence of the strings in
+	 * the given text, including overlapping ones.
+	 * @param s the text
+	 * @return A new matcher for the text
+	 */
+	public StringUnionMatcher newMatcher(CharSequence s) {
+		return new StringUnionMatcher(this, s, 0, s.length(), true);
+	}
+
+	/**
+	 * Creates a new matcher for the given region of the given text.
+	 * @param s the text
+	 * @param startOffset the index of the first char of the region
+	 * @param endOffset the index after the last char of the region
+	 * @param overlapping if true, every occurrence is reported; if false,
+	 *                    occurrences that overlap an earlier reported one are skipped
+	 * @return A new matcher for the region
+	 */
+	public StringUnionMatcher newMatcher(CharSequence s, int startOffset, int endOffset, boolean overlapping) {
+		return new StringUnionMatcher(this, s, startOffset, endOffset, overlapping);
+	}
+
+	/**
+	 * Retrieves a serialized <code>StringUnionSearcher</code> from a stream.
+	 * @param stream input stream with serialized searcher
+	 * @exception IOException if input/output related exception occurs
+	 * @exception ClassCastException if the data is not a serialized <code>StringUnionSearcher</code>
+	 * @exception ClassNotFoundException if the class of the serialized object cannot be found
+	 */
+	public static StringUnionSearcher load(InputStream stream) throws IOException, ClassCastException, ClassNotFoundException {
+		ObjectInputStream s = new ObjectInputStream(stream);
+		return (StringUnionSearcher) s.readObject();
+	}
+
+	/**
+	 * Writes this <code>StringUnionSearcher</code> to the given stream.
+	 * @param stream output stream for serialized searcher
+	 * @exception IOException if input/output related exception occurs
+	 */
+	public void store(OutputStream stream) throws IOException {
+		ObjectOutputStream s = new ObjectOutputStream(stream);
+		s.writeObject(this);
+		s.flush();
+	}
+}
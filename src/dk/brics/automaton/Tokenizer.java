@@ -0,0 +1,120 @@
+package dk.brics.automaton;
+
+/**
+ * Splits an input into tokens with a {@link Lexer}.
+ *
+ * <p>Each call to {@link #nextToken()} runs the lexer automaton from the end
+ * of the previous token until it dies or the input ends, and returns the
+ * type of the longest token seen on the way. No objects are allocated. If no
+ * token starts at the current position, the next char is returned as a token
+ * of type {@link #NONE}, so that the caller can report it and go on.
+ *
+ * @see Lexer#newTokenizer(CharSequence)
+ */
+public class Tokenizer {
+
+	/** Returned by {@link #nextToken()} at the end of the input. */
+	public static final int END = -1;
+
+	/** Returned by {@link #nextToken()} for a char where no token starts. */
+	public static final int NONE = -2;
+
+	Tokenizer(final Lexer lexer, final CharSequence chars, final int startOffset, final int endOffset) {
+		this.lexer = lexer;
+		reset(chars, startOffset, endOffset);
+	}
+
+	private final Lexer lexer;
+	private CharSequence chars;
+	private int limit; // offset after the last char of the input
+
+	private int type = END;
+	private int start;
+	private int end;
+
+	/**
+	 * Moves to the next token.
+	 * @return the type of the token, {@link #NONE} if no token starts at the
+	 *  current position, or {@link #END} at the end of the input
+	 */
+	public int nextToken() {
+		RunAutomaton a = lexer.automaton;
+		int[] types = lexer.types;
+		boolean[] terminal = lexer.terminal;
+		CharSequence s = chars;
+		int l = limit;
+		start = end;
+		if (start == l) {
+			type = END;
+			return END;
+		}
+		int t = NONE;
+		int e = start + 1;
+		int p = a.initial;
+		for (int i = start; i < l; ) {
+			p = a.step(p, s.charAt(i++));
+			if (p == -1)
+				break;
+			if (a.isAccept(p)) {
+				t = types[p];
+				e = i;
+				if (terminal[p]) {
+					// every char leads back here, so the token extends to the end
+					e = l;
+					break;
+				}
+			}
+		}
+		type = t;
+		end = e;
+		return t;
+	}
+
+	/**
+	 * Returns the type of the current token, as last returned by
+	 * {@link #nextToken()}.
+	 */
+	public int type() {
+		return type;
+	}
+
+	/**
+	 * Returns the offset of the first char of the current token.
+	 */
+	public int start() {
+		return start;
+	}
+
+	/**
+	 * Returns the offset after the last char of the current token.
+	 */
+	public int end() {
+		return end;
+	}
+
+	/**
+	 * Returns the text of the current token.
+	 * @exception IllegalStateException at the end of the input
+	 */
+	public String text() {
+		if (type == END)
+			throw new IllegalStateException("There is no current token.");
+		return chars.subSequence(start, end).toString();
+	}
+
+	/**
+	 * Resets this tokenizer to the start of the given input, so that it can
+	 * be reused without allocating a new one.
+	 * @param s the input
+	 */
+	public void reset(final CharSequence s) {
+		reset(s, 0, s.length());
+	}
+
+	private void reset(final CharSequence s, final int startOffset, final int endOffset) {
+		chars = s;
+		limit = endOffset;
+		start = end = startOffset;
+		type = END;
+	}
+}
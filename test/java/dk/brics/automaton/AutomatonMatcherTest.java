@@ -0,0 +1,214 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link AutomatonMatcher}.
+ */
+final class AutomatonMatcherTest {
+
+	@MethodSource("findScenarios")
+	@ParameterizedTest
+	void finds_leftmost_longest_matches(final String regex, final String input, final String expected) {
+		final Automaton automaton = new RegExp(regex).toAutomaton();
+
+		assertEquals(expected, findAll(new RunAutomaton(automaton, false), input));
+		assertEquals(expected, findAll(new RunAutomaton(automaton, true), input));
+		assertEquals(expected, findAllNaive(new RunAutomaton(automaton), input));
+	}
+
+	static Stream<Arguments> findScenarios() {
+		return Stream.of(
+				Arguments.of("[0-9]+", "abc 123 de 4 f", "[4,7][11,12]"),
+				// Leftmost match ends after the earliest match end
+				Arguments.of("abcd|c", "xabcd c", "[1,5][6,7]"),
+				Arguments.of("a+b|b", "aaab ab b", "[0,4][5,7][8,9]"),
+				// Many partial matches
+				Arguments.of("a*b", "aaaaaaaaaa", ""),
+				Arguments.of("a*b", "aaaaaaaaab", "[0,10]"),
+				// Empty matches
+				Arguments.of("a*", "baab", "[0,0][1,3][3,3][4,4]"),
+				Arguments.of("()", "ab", "[0,0][1,1][2,2]"),
+				// Lookahead past the earliest match end
+				Arguments.of("x[a-z]*y|z", "xabzcdz xaby", "[3,4][6,7][8,12]"),
+				// Candidates whose runs meet, die or accept later than others
+				Arguments.of("a[ab]*c|b[ab]*d|ab", "abbabd abbc bab", "[0,2][2,6][7,11][13,15]"),
+				Arguments.of("[ab]*b[ab]{2}|ba", "aababa", "[0,5]"),
+				Arguments.of("(ab)*c|ba", "ababa ababc", "[1,3][3,5][6,11]"),
+				Arguments.of("#", "abc", ""),
+				Arguments.of(".+", "", ""),
+				Arguments.of("[a-z]+", "", "")
+		);
+	}
+
+	@Test
+	void finds_the_leftmost_of_many_candidates_in_one_pass() {
+		final RunAutomaton automaton = new RunAutomaton(new RegExp("x[a-z]*y|z").toAutomaton());
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 200000; i++) {
+			b.append('x');
+		}
+		// every x is a candidate, and all but the last run to the end of the input
+		assertEquals("[200000,200001]", findAll(automaton, b.append('z').toString()));
+		assertEquals("[0,200002]", findAll(automaton, b.append('y').toString()));
+	}
+
+	@Test
+	void finds_the_same_matches_as_trying_each_start() {
+		final Random random = new Random(1);
+		for (final String regex : new String[] {"a[ab]*c|b", "(ab|b)*a", "[ab]{2}c|b*", "(a|bc)+d|ca", "ab?c?|b*c"}) {
+			final RunAutomaton automaton = new RunAutomaton(new RegExp(regex).toAutomaton());
+			for (int n = 0; n < 300; n++) {
+				final StringBuilder b = new StringBuilder();
+				for (int j = random.nextInt(16); j > 0; j--) {
+					b.append("abcd".charAt(random.nextInt(4)));
+				}
+				final String input = b.toString();
+				assertEquals(findAllNaive(automaton, input), findAll(automaton, input), regex + " on " + input);
+			}
+		}
+	}
+
+	@Test
+	void finds_the_same_matches_when_minimizing_always() {
+		Automaton.setMinimizeAlways(true);
+		try {
+			final Automaton automaton = new RegExp("a*b").toAutomaton();
+			assertEquals("[1,4]", findAll(new RunAutomaton(automaton), "xaab"));
+			assertEquals("[1,4][5,6]", findAll(new RunAutomaton(new RegExp("abc|c").toAutomaton()), "xabcbc"));
+			assertTrue(new MatchOnlyRunAutomaton(automaton).matches("xaab"));
+		} finally {
+			Automaton.setMinimizeAlways(false);
+		}
+	}
+
+	@Test
+	void reset_matcher_finds_the_same_matches_as_a_new_one() {
+		final RunAutomaton automaton = new RunAutomaton(new RegExp("[0-9]+|x[a-z]*y").toAutomaton());
+		final AutomatonMatcher testee = automaton.newMatcher("");
+		assertFalse(testee.find());
+		for (final String input : new String[] {"abc 123 de 4 f", "xabzy 12", "", "99"}) {
+			final StringBuilder b = new StringBuilder();
+			testee.reset(input);
+			while (testee.find()) {
+				final CharSequence matched = testee.groupChars();
+				assertEquals(testee.group(), matched.toString());
+				assertEquals(testee.end() - testee.start(), matched.length());
+				b.append('[').append(testee.start()).append(',').append(testee.end()).append(']');
+			}
+			assertEquals(findAll(automaton, input), b.toString());
+			assertThrows(IllegalStateException.class, testee::groupChars);
+
+			testee.reset();
+			assertEquals(!b.toString().isEmpty(), testee.find());
+		}
+	}
+
+	@Test
+	void region_matchers_report_offsets_within_the_region() throws IOException {
+		final RunAutomaton automaton = new CaptureRunAutomaton(new RegExp("([0-9]+)(x)?"));
+		final String input = "12 345x 6 78x9";
+		final char[] chars = input.toCharArray();
+		for (int start = 0; start <= input.length(); start++) {
+			for (int end = start; end <= input.length(); end++) {
+				final String region = input.substring(start, end);
+				final String expected = findAllWithGroups(automaton.newMatcher(region));
+				assertEquals(expected, findAllWithGroups(automaton.newMatcher(input, start, end)));
+				assertEquals(expected, findAllWithGroups(automaton.newMatcher(chars, start, end)));
+				assertEquals(expected, findAllWithGroups(automaton.newMatcher("").reset(new StringBuilder(input), start, end)));
+				assertEquals(automaton.newMatcher(region).replaceAll("#"),
+						automaton.newMatcher(chars, start, end).replaceAll("#", new StringWriter()).toString());
+			}
+		}
+		assertThrows(IndexOutOfBoundsException.class, () -> automaton.newMatcher(input, 3, 2));
+		assertThrows(IndexOutOfBoundsException.class, () -> automaton.newMatcher(chars, 0, chars.length + 1));
+	}
+
+	private static String findAllWithGroups(final AutomatonMatcher matcher) {
+		final StringBuilder b = new StringBuilder();
+		while (matcher.find()) {
+			b.append('[').append(matcher.start()).append(',').append(matcher.end()).append(' ').append(matcher.group())
+					.append(' ').append(matcher.start(2)).append(' ').append(matcher.group(1)).append(']');
+		}
+		return b.toString();
+	}
+
+	@MethodSource("replaceScenarios")
+	@ParameterizedTest
+	void replaces_and_splits_like_java_util_regex(final String regex, final String input) throws IOException {
+		final RunAutomaton automaton = new RunAutomaton(new RegExp(regex).toAutomaton());
+		final Pattern pattern = Pattern.compile(regex);
+		final AutomatonMatcher testee = automaton.newMatcher(input);
+
+		assertEquals(pattern.matcher(input).replaceAll("<>"), testee.replaceAll("<>"));
+		assertEquals(pattern.matcher(input).replaceAll("<>"), testee.replaceAll("<>", new StringWriter()).toString());
+		assertEquals(pattern.matcher(input).replaceFirst("<>"), testee.replaceFirst("<>", new StringBuilder()).toString());
+		assertEquals(pattern.matcher(input).replaceAll("<$0$0>"),
+				testee.replaceAll((chars, start, end, out) -> out.append('<').append(chars, start, end).append(chars, start, end).append('>'),
+						new StringBuilder()).toString());
+
+		final List<String> pieces = new ArrayList<>();
+		final int n = testee.split((chars, start, end) -> pieces.add(chars.subSequence(start, end).toString()));
+		assertEquals(Arrays.asList(pattern.split(input, -1)), pieces);
+		assertEquals(pieces.size(), n);
+	}
+
+	static Stream<Arguments> replaceScenarios() {
+		return Stream.of(
+				Arguments.of("[0-9]+", "abc 123 de 4 f5"),
+				Arguments.of("[0-9]+", "1x22"),
+				Arguments.of(", *", "a, b,,  c,"),
+				Arguments.of("a*", "baab"),
+				Arguments.of("a*", ""),
+				Arguments.of("x", "abc"),
+				Arguments.of("[0-9]{3}-[0-9]{4}", "call 555-1234 or 555-9876.")
+		);
+	}
+
+	private static String findAll(final RunAutomaton automaton, final String input) {
+		final AutomatonMatcher matcher = automaton.newMatcher(input);
+		final StringBuilder b = new StringBuilder();
+		while (matcher.find()) {
+			b.append('[').append(matcher.start()).append(',').append(matcher.end()).append(']');
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Finds the same matches as {@link AutomatonMatcher#find()} by trying each start position in turn.
+	 */
+	private static String findAllNaive(final RunAutomaton automaton, final String input) {
+		final List<int[]> matches = new ArrayList<int[]>();
+		int begin = 0;
+		while (begin <= input.length()) {
+			int len = automaton.run(input, begin);
+			if (len == -1) {
+				begin++;
+				continue;
+			}
+			matches.add(new int[] {begin, begin + len});
+			begin = len == 0 ? begin + 1 : begin + len;
+		}
+		final StringBuilder b = new StringBuilder();
+		for (final int[] m : matches) {
+			b.append('[').append(m[0]).append(',').append(m[1]).append(']');
+		}
+		return b.toString();
+	}
+}
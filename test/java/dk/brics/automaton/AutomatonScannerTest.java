@@ -0,0 +1,106 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link AutomatonScanner}.
+ */
+final class AutomatonScannerTest {
+
+	static Stream<Arguments> regexes() {
+		return Stream.of(
+				Arguments.of("(ab|b)*"),
+				Arguments.of("a*b"),
+				Arguments.of("b[ab]*a"),
+				Arguments.of("c(a|b)*c"),
+				Arguments.of("a.*"),
+				Arguments.of("()"));
+	}
+
+	@MethodSource("regexes")
+	@ParameterizedTest
+	void gives_the_same_results_for_any_chunking(final String regex) {
+		final Automaton automaton = new RegExp(regex).toAutomaton();
+		final RunAutomaton run = new RunAutomaton(automaton);
+		final MatchOnlyRunAutomaton matchOnly = new MatchOnlyRunAutomaton(automaton);
+		final Random random = new Random(regex.hashCode());
+		for (int n = 0; n < 300; n++) {
+			final char[] chars = new char[random.nextInt(20)];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = "abcx".charAt(random.nextInt(4));
+			}
+			final String input = new String(chars);
+			final AutomatonScanner full = run.newScanner();
+			final AutomatonScanner search = matchOnly.newScanner();
+			for (int i = 0; i < chars.length; ) {
+				final int len = Math.min(random.nextInt(4), chars.length - i);
+				full.feed(chars, i, len);
+				search.feed(chars, i, len);
+				i += len;
+			}
+			assertEquals(chars.length, full.getOffset());
+			assertEquals(run.run(input), full.finish(), input);
+			assertEquals(matchOnly.matches(input), search.finish(), input);
+		}
+	}
+
+	@Test
+	void resumes_from_a_snapshot_in_a_loaded_copy() throws IOException, ClassNotFoundException {
+		final MatchOnlyRunAutomaton matchOnly = new MatchOnlyRunAutomaton(new RegExp("ERROR [0-9]+").toAutomaton());
+		final AutomatonScanner scanner = matchOnly.newScanner();
+		scanner.feed("INFO ok\nERR");
+		assertFalse(scanner.isMatched());
+		final int state = scanner.getState();
+		final long offset = scanner.getOffset();
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		matchOnly.store(out);
+		final MatchOnlyRunAutomaton copy = MatchOnlyRunAutomaton.load(new ByteArrayInputStream(out.toByteArray()));
+		final AutomatonScanner resumed = copy.resumeScanner(state, offset);
+		resumed.feed("OR 42\n".toCharArray(), 0, 6);
+		assertTrue(resumed.isDecided());
+		assertTrue(resumed.finish());
+		assertEquals(17, resumed.getOffset());
+	}
+
+	@Test
+	void stops_once_the_result_is_decided() {
+		final AutomatonScanner scanner = new RunAutomaton(new RegExp("ab.*").toAutomaton()).newScanner();
+		scanner.feed("a");
+		assertFalse(scanner.isDecided());
+		scanner.feed("bc");
+		assertTrue(scanner.isDecided());
+		assertTrue(scanner.isMatched());
+
+		final AutomatonScanner dead = new RunAutomaton(new RegExp("ab").toAutomaton()).newScanner();
+		dead.feed("x");
+		assertTrue(dead.isDecided());
+		assertEquals(-1, dead.getState());
+		assertFalse(dead.finish());
+		assertThrows(IllegalStateException.class, () -> dead.feed("ab"));
+	}
+
+	@Test
+	void rejects_states_of_other_automata() {
+		final RunAutomaton run = new RunAutomaton(new RegExp("ab").toAutomaton());
+		assertThrows(IllegalArgumentException.class, () -> run.resumeScanner(run.getSize(), 0));
+		assertThrows(IllegalArgumentException.class, () -> run.resumeScanner(-2, 0));
+		assertThrows(IllegalArgumentException.class, () -> run.resumeScanner(0, -1));
+		final MatchOnlyRunAutomaton matchOnly = new MatchOnlyRunAutomaton(new RegExp("ab").toAutomaton());
+		assertThrows(IllegalArgumentException.class, () -> matchOnly.resumeScanner(-1, 0));
+		assertTrue(matchOnly.resumeScanner(-2, 0).finish());
+	}
+}
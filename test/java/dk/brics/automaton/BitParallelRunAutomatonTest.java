@@ -0,0 +1,58 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link BitParallelRunAutomaton}.
+ */
+final class BitParallelRunAutomatonTest {
+
+	@MethodSource("regexes")
+	@ParameterizedTest
+	void runs_like_run_automaton(final String regex, final int minPositions) {
+		final Automaton automaton = new RegExp(regex).toAutomaton(false);
+		final BitParallelRunAutomaton testee = new BitParallelRunAutomaton(automaton);
+		assertTrue(testee.getPositions() >= minPositions);
+
+		final RunAutomaton expected = new RunAutomaton(automaton.clone());
+		// searching with .* would determinize to exponentially many states here
+		final LazyRunAutomaton expectedSearch = new LazyRunAutomaton(automaton);
+		final Random random = new Random(42);
+		for (int n = 0; n < 500; n++) {
+			final String input = randomString(random, random.nextInt(minPositions + 20));
+			final int offset = input.isEmpty() ? 0 : random.nextInt(input.length());
+			assertEquals(expected.run(input), testee.run(input), input);
+			assertEquals(expected.run(input, offset), testee.run(input, offset), input);
+			assertEquals(expectedSearch.matches(input), testee.matches(input), input);
+		}
+	}
+
+	static Stream<Arguments> regexes() {
+		return Stream.of(
+				Arguments.of("(a|b)*a(a|b){6}", 8),
+				Arguments.of("(ab|a)(bc|c)*", 4),
+				Arguments.of("x|y|zz", 4),
+				Arguments.of("()", 1),
+				Arguments.of("#", 1),
+				// several words, tableized
+				Arguments.of("((ab|ba|c)*x){12}", 65),
+				// several words, not tableized
+				Arguments.of("[^a]*a[^b]{300}y", 257)
+		);
+	}
+
+	private static String randomString(final Random random, final int length) {
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			b.append("abcxyz".charAt(random.nextInt(6)));
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,90 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link ByteRunAutomaton}.
+ */
+final class ByteRunAutomatonTest {
+
+	@MethodSource("utf8Scenarios")
+	@ParameterizedTest
+	void runs_utf8_like_run_automaton(final String regex, final String input) {
+		final Automaton automaton = new RegExp(regex).toAutomaton();
+		final boolean expected = new RunAutomaton(automaton).run(input);
+		final byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+
+		final ByteRunAutomaton testee = new ByteRunAutomaton(automaton);
+		assertEquals(expected, testee.run(bytes, 0, bytes.length));
+		assertEquals(expected, testee.run(ByteBuffer.wrap(bytes)));
+		final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+		assertEquals(expected, testee.run(direct));
+		assertEquals(expected, testee.longestMatch(bytes, 0, bytes.length) == bytes.length);
+	}
+
+	static Stream<Arguments> utf8Scenarios() {
+		return Stream.of(
+				Arguments.of("abc", "abc"),
+				Arguments.of("abc", "abd"),
+				Arguments.of("[a-zæøå]+", "blåbærgrød"),
+				Arguments.of("[a-z]+", "blå"),
+				Arguments.of(".+", "€ࠀ߿\u0080\u007f"),
+				Arguments.of("[Ā-⿿]*", "Ā߿ࠀ⿿"),
+				Arguments.of("[Ā-⿿]*", "ÿ"),
+				Arguments.of("x.y", "x😀y"),
+				Arguments.of("x\ud83d[\ude00-\ude4f]y", "x😃y"),
+				Arguments.of("x\ud83d[\ude00-\ude4f]y", "x🙐y"),
+				Arguments.of("x[\ud800-\udbff][\udc00-\udfff]y", "x􏿿y"),
+				Arguments.of("~(a*)", "￿"),
+				Arguments.of("()", "")
+		);
+	}
+
+	@Test
+	void rejects_malformed_utf8() {
+		final ByteRunAutomaton testee = new ByteRunAutomaton(new RegExp(".*").toAutomaton());
+		assertTrue(testee.run(new byte[] {'a', (byte) 0xc3, (byte) 0xa5}, 0, 3));
+		// truncated sequence
+		assertFalse(testee.run(new byte[] {'a', (byte) 0xc3}, 0, 2));
+		// overlong encoding of '/'
+		assertFalse(testee.run(new byte[] {(byte) 0xc0, (byte) 0xaf}, 0, 2));
+		// encoded surrogate
+		assertFalse(testee.run(new byte[] {(byte) 0xed, (byte) 0xa0, (byte) 0x80}, 0, 3));
+	}
+
+	@Test
+	void runs_latin1() {
+		final Automaton automaton = new RegExp("café|€").toAutomaton();
+		final ByteRunAutomaton testee = new ByteRunAutomaton(automaton, true);
+		final byte[] cafe = "café".getBytes(StandardCharsets.ISO_8859_1);
+		assertTrue(testee.run(cafe, 0, cafe.length));
+		assertFalse(testee.run(new byte[] {(byte) 0x80}, 0, 1));
+	}
+
+	@Test
+	void finds_matches() {
+		final ByteRunAutomaton testee = new ByteRunAutomaton(new RegExp("[æøå]+").toAutomaton());
+		final byte[] bytes = "--rødå ææ".getBytes(StandardCharsets.UTF_8);
+
+		assertTrue(testee.matches(bytes, 0, bytes.length));
+		assertFalse(testee.matches(bytes, 0, 3));
+
+		final ByteAutomatonMatcher matcher = testee.newMatcher(bytes, 1, bytes.length - 1);
+		final StringBuilder b = new StringBuilder();
+		while (matcher.find()) {
+			b.append('[').append(matcher.start()).append(',').append(matcher.end()).append(']');
+		}
+		assertEquals("[3,5][6,8][9,13]", b.toString());
+	}
+}
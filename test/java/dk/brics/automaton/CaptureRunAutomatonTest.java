@@ -0,0 +1,158 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link CaptureRunAutomaton}.
+ */
+final class CaptureRunAutomatonTest {
+
+	@MethodSource("groupScenarios")
+	@ParameterizedTest
+	void reports_the_groups_java_util_regex_reports(final String regex, final String alphabet) {
+		final CaptureRunAutomaton testee = new CaptureRunAutomaton(new RegExp(regex));
+		final Pattern pattern = Pattern.compile(regex);
+		assertEquals(pattern.matcher("").groupCount(), testee.getGroupCount());
+		final Random random = new Random(22);
+		int matched = 0;
+		for (int n = 0; n < 2000; n++) {
+			final StringBuilder b = new StringBuilder();
+			for (int j = random.nextInt(9); j > 0; j--) {
+				b.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			final String input = b.toString();
+			final Matcher expected = pattern.matcher(input);
+			assertEquals(expected.matches(), testee.run(input), input);
+			if (!expected.matches()) {
+				continue;
+			}
+			matched++;
+			final AutomatonMatcher actual = testee.newMatcher(input);
+			assertTrue(actual.find());
+			assertEquals(0, actual.start());
+			assertEquals(input.length(), actual.end());
+			assertEquals(expected.groupCount(), actual.groupCount());
+			for (int g = 1; g <= expected.groupCount(); g++) {
+				assertEquals(expected.start(g), actual.start(g), input + " group " + g);
+				assertEquals(expected.end(g), actual.end(g), input + " group " + g);
+				assertEquals(expected.group(g), actual.group(g), input + " group " + g);
+			}
+		}
+		assertTrue(matched > 10, regex);
+	}
+
+	static Stream<Arguments> groupScenarios() {
+		return Stream.of(
+				Arguments.of("(a|ab)(c|bcd)(d*)", "abcd"),
+				Arguments.of("(a*)(a*)", "a"),
+				Arguments.of("(a+)(b+)?a*", "ab"),
+				Arguments.of("((a)|b)+", "ab"),
+				Arguments.of("(x)?y(z)?", "xyz"),
+				Arguments.of("([0-9]+)-([0-9]*)", "01-"),
+				Arguments.of("(a|b)*c(d)", "abcd"),
+				Arguments.of("(.*)(ab)(.*)", "abc"),
+				Arguments.of("(a{2,3})(a*)", "a"),
+				Arguments.of("(a{2,})(a)", "a"),
+				Arguments.of("()a|b", "ab"),
+				Arguments.of("([ab]*)b([ab]?)", "ab"),
+				Arguments.of("(ab|a)(bc|c)?", "abc")
+		);
+	}
+
+	@MethodSource("differentGroupScenarios")
+	@ParameterizedTest
+	void reports_the_groups_of_the_leftmost_greedy_way_of_matching(final String regex, final String input, final String expected) {
+		final AutomatonMatcher matcher = new CaptureRunAutomaton(new RegExp(regex)).newMatcher(input);
+		assertTrue(matcher.find());
+		assertEquals(input.length(), matcher.end());
+		final StringBuilder b = new StringBuilder();
+		for (int g = 1; g <= matcher.groupCount(); g++) {
+			b.append('[').append(matcher.start(g)).append(',').append(matcher.end(g)).append(']');
+		}
+		assertEquals(expected, b.toString());
+	}
+
+	static Stream<Arguments> differentGroupScenarios() {
+		return Stream.of(
+				// java.util.regex reports group 2 from an earlier repetition: [2,3]
+				Arguments.of("(b(a)*)*", "bbaba", "[3,5][4,5]"),
+				// java.util.regex keeps group 2 from the repetition it backtracked out of: [0,1]
+				Arguments.of("((b))*b", "b", "[-1,-1][-1,-1]"),
+				// java.util.regex ends the repetitions with an empty one: [2,2], [1,1] and [3,3]
+				Arguments.of("(a*)+", "aa", "[0,2]"),
+				Arguments.of("(a?)*", "a", "[0,1]"),
+				Arguments.of("(b)?(((a|a))*)*", "baa", "[0,1][1,3][2,3][2,3]"),
+				// as java.util.regex, a group keeps its last repetition when an enclosing
+				// repetition does not set it
+				Arguments.of("(b(a)?)*", "bab", "[2,3][1,2]")
+		);
+	}
+
+	@Test
+	void finds_groups_of_each_match() {
+		final CaptureRunAutomaton testee = new CaptureRunAutomaton(new RegExp("([a-z]+)=([0-9]*)(;)?"));
+		final AutomatonMatcher matcher = testee.newMatcher("x=1; yy=, z=42;");
+		final StringBuilder b = new StringBuilder();
+		while (matcher.find()) {
+			b.append('[').append(matcher.group(1)).append(',').append(matcher.group(2)).append(',').append(matcher.group(3)).append(']');
+		}
+		assertEquals("[x,1,;][yy,,null][z,42,;]", b.toString());
+	}
+
+	@Test
+	void groups_in_complements_take_no_part() {
+		final CaptureRunAutomaton testee = new CaptureRunAutomaton(new RegExp("(a)(~(b))(<n>)"),
+				Collections.singletonMap("n", BasicAutomata.makeString("n")));
+		assertEquals(4, testee.getGroupCount());
+		final AutomatonMatcher matcher = testee.newMatcher("aan");
+		assertTrue(matcher.find());
+		assertEquals("a", matcher.group(1));
+		assertEquals("a", matcher.group(2));
+		assertNull(matcher.group(3));
+		assertEquals(-1, matcher.start(3));
+		assertEquals("n", matcher.group(4));
+	}
+
+	@Test
+	void rejects_groups_out_of_range() {
+		final AutomatonMatcher plain = new RunAutomaton(new RegExp("(a)").toAutomaton()).newMatcher("a");
+		assertEquals(0, plain.groupCount());
+		assertTrue(plain.find());
+		assertThrows(IndexOutOfBoundsException.class, () -> plain.group(1));
+
+		final AutomatonMatcher matcher = new CaptureRunAutomaton(new RegExp("(a)")).newMatcher("a");
+		assertThrows(IllegalStateException.class, () -> matcher.start(1));
+		assertTrue(matcher.find());
+		assertThrows(IndexOutOfBoundsException.class, () -> matcher.start(2));
+		assertThrows(IndexOutOfBoundsException.class, () -> matcher.end(-1));
+	}
+
+	@Test
+	void survives_serialization() throws IOException, ClassNotFoundException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new CaptureRunAutomaton(new RegExp("(a+)(b*)")).store(out);
+		final RunAutomaton loaded = RunAutomaton.load(new ByteArrayInputStream(out.toByteArray()));
+		final AutomatonMatcher matcher = loaded.newMatcher("xaabb");
+		assertTrue(matcher.find());
+		assertEquals(2, matcher.groupCount());
+		assertEquals("aa", matcher.group(1));
+		assertEquals("bb", matcher.group(2));
+		assertEquals("aabb", matcher.toMatchResult().group(0));
+	}
+}
@@ -0,0 +1,105 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link FileScanner}.
+ */
+final class FileScannerTest {
+
+	private static final String TEXT = "first line\nERROR 42 here\n\nwarning: ERROR\n"
+			+ "résumé ERROR 7\nERROR 1234567890123456789\nlast ERROR 9";
+
+	static Stream<Arguments> scanScenarios() {
+		return Stream.of(
+				Arguments.of("ERROR [0-9]+", false),
+				Arguments.of("ERROR [0-9]+", true),
+				Arguments.of("résumé.*", true),
+				Arguments.of("[a-z ]*", true),
+				Arguments.of("x*", false),
+				Arguments.of("ERROR", false));
+	}
+
+	@MethodSource("scanScenarios")
+	@ParameterizedTest
+	void finds_the_same_lines_as_run_on_strings(final String regex, final boolean wholeLine,
+			@TempDir final File tmpdir) throws IOException {
+		final Path file = new File(tmpdir, "input.txt").toPath();
+		Files.write(file, TEXT.getBytes(StandardCharsets.UTF_8));
+
+		final Automaton automaton = new RegExp(regex).toAutomaton();
+		final RunAutomaton run = new RunAutomaton(automaton);
+		final MatchOnlyRunAutomaton matchOnly = new MatchOnlyRunAutomaton(automaton);
+		final List<String> expected = new ArrayList<>();
+		final String[] lines = TEXT.split("\n", -1);
+		long offset = 0;
+		for (int i = 0; i < lines.length; i++) {
+			final long length = lines[i].getBytes(StandardCharsets.UTF_8).length;
+			if (wholeLine ? run.run(lines[i]) : matchOnly.matches(lines[i])) {
+				expected.add((i + 1) + ":" + offset + "-" + (offset + length));
+			}
+			offset += length + 1;
+		}
+
+		for (final int chunk : new int[] {7, FileScanner.CHUNK}) {
+			final List<String> actual = new ArrayList<>();
+			final FileScanner testee = new FileScanner(new ByteRunAutomaton(automaton), wholeLine, chunk);
+			final long count = testee.scan(file, (f, line, start, end) -> {
+				assertEquals(file, f);
+				actual.add(line + ":" + start + "-" + end);
+			});
+			assertEquals(expected, actual, regex + " in chunks of " + chunk);
+			assertEquals(expected.size(), count);
+		}
+	}
+
+	@Test
+	void scans_several_files_in_parallel(@TempDir final File tmpdir) throws IOException {
+		final List<Path> files = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			final Path file = new File(tmpdir, "input" + i + ".txt").toPath();
+			final StringBuilder b = new StringBuilder();
+			for (int j = 0; j < 1000; j++) {
+				b.append(j % (i + 2) == 0 ? "id " + j : "none").append('\n');
+			}
+			Files.write(file, b.toString().getBytes(StandardCharsets.UTF_8));
+			files.add(file);
+		}
+		final FileScanner testee = new FileScanner(new ByteRunAutomaton(new RegExp("[0-9]+").toAutomaton()));
+		final List<String> found = Collections.synchronizedList(new ArrayList<>());
+		final long count = testee.scan(files, (file, line, start, end) -> found.add(file + ":" + line));
+		long expected = 0;
+		for (int i = 0; i < 8; i++) {
+			expected += (999 / (i + 2)) + 1;
+			final String prefix = files.get(i) + ":";
+			assertEquals(testee.scan(files.get(i), null), found.stream().filter(s -> s.startsWith(prefix)).count());
+		}
+		assertEquals(expected, count);
+		assertEquals(expected, found.size());
+	}
+
+	@Test
+	void reports_missing_files(@TempDir final File tmpdir) {
+		final FileScanner testee = new FileScanner(new ByteRunAutomaton(new RegExp("a").toAutomaton()));
+		final Path missing = new File(tmpdir, "missing").toPath();
+		assertThrows(IOException.class, () -> testee.scan(missing, null));
+		assertThrows(IOException.class, () -> testee.scan(Arrays.asList(missing, missing), null));
+	}
+}
@@ -0,0 +1,103 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link LazyRunAutomaton}.
+ */
+final class LazyRunAutomatonTest {
+
+	@MethodSource("regexes")
+	@ParameterizedTest
+	void runs_like_run_automaton(final String regex) {
+		final Automaton automaton = new RegExp(regex).toAutomaton(false);
+		final RunAutomaton expected = new RunAutomaton(automaton);
+		final MatchOnlyRunAutomaton expectedSearch = new MatchOnlyRunAutomaton(automaton);
+		final Random random = new Random(42);
+
+		// a tiny cache is flushed all the time and falls back to simulation
+		for (final int cacheSize : new int[] {LazyRunAutomaton.DEFAULT_CACHE_SIZE, 300}) {
+			final LazyRunAutomaton testee = new LazyRunAutomaton(automaton, cacheSize);
+			for (int n = 0; n < 500; n++) {
+				final String input = randomString(random, random.nextInt(30));
+				final int offset = input.isEmpty() ? 0 : random.nextInt(input.length());
+				assertEquals(expected.run(input), testee.run(input), input);
+				assertEquals(expected.run(input, offset), testee.run(input, offset), input);
+				assertEquals(expectedSearch.matches(input), testee.matches(input), input);
+			}
+		}
+	}
+
+	static Stream<Arguments> regexes() {
+		return Stream.of(
+				Arguments.of("(a|b)*a(a|b){6}"),
+				Arguments.of("(ab|a)(bc|c)*"),
+				Arguments.of("[a-c]*c[a-c]{3}"),
+				Arguments.of("x|y|zz"),
+				Arguments.of("()"),
+				Arguments.of("#")
+		);
+	}
+
+	private static String randomString(final Random random, final int length) {
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			b.append("abcxyz".charAt(random.nextInt(6)));
+		}
+		return b.toString();
+	}
+
+	@Test
+	void runs_without_determinizing() {
+		final Automaton automaton = new RegExp("(a|b)*a(a|b){20}").toAutomaton(false);
+		final LazyRunAutomaton testee = new LazyRunAutomaton(automaton, 1 << 16);
+		final StringBuilder input = new StringBuilder();
+		final Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			input.append(random.nextBoolean() ? 'a' : 'b');
+		}
+		input.append("a").append("bbbbbbbbbbbbbbbbbbbb");
+		assertTrue(testee.run(input));
+		assertFalse(testee.run(input.append('b')));
+		assertTrue(testee.matches(input));
+	}
+
+	@Test
+	void runs_concurrently() throws Exception {
+		final Automaton automaton = new RegExp("(a|b)*a(a|b){8}").toAutomaton(false);
+		final RunAutomaton expected = new RunAutomaton(automaton);
+		final LazyRunAutomaton testee = new LazyRunAutomaton(automaton, 4000);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < 4; t++) {
+				final Random random = new Random(t);
+				futures.add(executor.submit(() -> {
+					for (int n = 0; n < 2000; n++) {
+						final String input = randomString(random, random.nextInt(40)).replaceAll("[cxyz]", "b");
+						assertEquals(expected.run(input), testee.run(input), input);
+					}
+				}));
+			}
+			for (final Future<?> f : futures) {
+				f.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link Lexer}.
+ */
+final class LexerTest {
+
+	private static List<Automaton> automata(final String... regexes) {
+		final List<Automaton> automata = new ArrayList<>();
+		for (final String regex : regexes) {
+			automata.add(new RegExp(regex).toAutomaton());
+		}
+		return automata;
+	}
+
+	private static List<String> tokens(final Tokenizer tokenizer) {
+		final List<String> tokens = new ArrayList<>();
+		for (int type = tokenizer.nextToken(); type != Tokenizer.END; type = tokenizer.nextToken()) {
+			tokens.add(type + ":" + tokenizer.start() + "-" + tokenizer.end());
+		}
+		return tokens;
+	}
+
+	@Test
+	void finds_the_same_tokens_as_running_each_token_automaton() {
+		final String[] regexes = {"if|else", "[a-z]+", "[0-9]+", "[0-9]+\\.[0-9]+", " +", "[=<>]=?", "\\\"[^\\\"]*\\\""};
+		final List<Automaton> automata = automata(regexes);
+		final RunAutomaton[] each = new RunAutomaton[regexes.length];
+		for (int k = 0; k < regexes.length; k++) {
+			each[k] = new RunAutomaton(automata.get(k));
+		}
+		final Lexer testee = new Lexer(automata);
+		final Tokenizer tokenizer = testee.newTokenizer("");
+		final Random random = new Random(21);
+		for (int n = 0; n < 500; n++) {
+			final StringBuilder b = new StringBuilder();
+			for (int j = random.nextInt(30); j > 0; j--) {
+				b.append("if else x1 9.5 <= \"a b\" ?.".charAt(random.nextInt(26)));
+			}
+			final String input = b.toString();
+
+			// the workaround: run every token automaton at every position
+			final List<String> expected = new ArrayList<>();
+			for (int i = 0; i < input.length(); ) {
+				int type = Tokenizer.NONE;
+				int length = 0;
+				for (int k = 0; k < each.length; k++) {
+					final int m = each[k].run(input, i);
+					if (m > length) {
+						type = k;
+						length = m;
+					}
+				}
+				final int end = type == Tokenizer.NONE ? i + 1 : i + length;
+				expected.add(type + ":" + i + "-" + end);
+				i = end;
+			}
+
+			tokenizer.reset(input);
+			assertEquals(expected, tokens(tokenizer), input);
+		}
+	}
+
+	@Test
+	void reports_types_and_text() throws IOException, ClassNotFoundException {
+		final Lexer testee = new Lexer(automata("GET|POST", "[A-Z]+", "/[a-z/]*", " ", "HTTP/1\\.[01]"),
+				new int[] {10, 11, 12, 13, 14});
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		testee.store(out);
+		final Lexer loaded = Lexer.load(new ByteArrayInputStream(out.toByteArray()));
+
+		final String line = "> GET /index HTTP/1.1";
+		final Tokenizer tokenizer = loaded.newTokenizer(line, 2, line.length());
+		final List<String> texts = new ArrayList<>();
+		for (int type = tokenizer.nextToken(); type != Tokenizer.END; type = tokenizer.nextToken()) {
+			texts.add(type + " " + tokenizer.text());
+		}
+		assertEquals(Arrays.asList("10 GET", "13  ", "12 /index", "13  ", "14 HTTP/1.1"), texts);
+		assertEquals(Tokenizer.END, tokenizer.type());
+		assertThrows(IllegalStateException.class, tokenizer::text);
+
+		final Tokenizer unknown = testee.newTokenizer("GET?");
+		assertEquals(10, unknown.nextToken());
+		assertEquals(Tokenizer.NONE, unknown.nextToken());
+		assertEquals("?", unknown.text());
+		assertEquals(Tokenizer.END, unknown.nextToken());
+	}
+
+	@Test
+	void extends_tokens_to_the_end_in_terminal_states() {
+		final Lexer testee = new Lexer(automata("\\#.*", "[a-z]+"));
+		final Tokenizer tokenizer = testee.newTokenizer("abc# rest of the line");
+		assertEquals(Arrays.asList("1:0-3", "0:3-21"), tokens(tokenizer));
+	}
+
+	@Test
+	void rejects_invalid_types() {
+		assertThrows(IllegalArgumentException.class, () -> new Lexer(automata("a", "b"), new int[] {1}));
+		assertThrows(IllegalArgumentException.class, () -> new Lexer(automata("a"), new int[] {-1}));
+	}
+}
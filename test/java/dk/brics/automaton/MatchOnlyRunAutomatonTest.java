@@ -11,8 +11,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
@@ -66,6 +70,77 @@ final class MatchOnlyRunAutomatonTest {
 		assertThrows(IllegalArgumentException.class, () -> testee.matches("123", -1));
 	}
 
+	static Stream<Arguments> requiredSubstringScenarios() {
+		return Stream.of(
+				Arguments.of("[a-z]+ERROR[0-9]+", "ERROR"),
+				Arguments.of("foo[0-9]+/api/v2/[a-z]+", "/api/v2/"),
+				Arguments.of("abc|abd", "ab"),
+				Arguments.of("x(ab|cb)d", "bd"),
+				Arguments.of("GET /[a-z/]+ HTTP/1\\.[01]", " HTTP/1."),
+				Arguments.of("x*", ""),
+				Arguments.of("[a-z]+", ""));
+	}
+
+	@MethodSource("requiredSubstringScenarios")
+	@ParameterizedTest
+	void finds_required_substring(final String regex, final String expected) {
+		final Automaton automaton = new RegExp(regex).toAutomaton();
+		assertEquals(expected, SpecialOperations.getRequiredSubstring(automaton));
+	}
+
+	static Stream<Arguments> prefilterScenarios() {
+		return Stream.of(
+				Arguments.of("[a-z]+ERROR[0-9]+", "info: ok\nwarn: ERRO1 ERROR\nerrorERROR7", true),
+				Arguments.of("[a-z]+ERROR[0-9]+", "info: ok\nwarn: ERROR1 xERROR", false),
+				Arguments.of("ab[0-9]c", "xab1ab2xab3c", true),
+				Arguments.of("ab[0-9]c", "xab1ab2xab3d", false),
+				Arguments.of("(a|b)xyz", "axyaxybxyz", true),
+				Arguments.of("(a|b)xyz", "axyaxycxyz", false),
+				Arguments.of("[0-9]{1,3}ms", "took 1234ms", true),
+				Arguments.of("[0-9]{1,3}ms", "took ms", false),
+				Arguments.of("[#@][a-z]+[0-9]", "a#1 @ b@x #yz9", true),
+				Arguments.of("[#@][a-z]+[0-9]", "a#1 @ b@x #yz", false),
+				Arguments.of("#[a-z]|[0-9]+#", "a#1 b\u0100#", false),
+				Arguments.of("(X|Y)[a-z]*(1|2)|Z[0-9]", "Xab3 Za Yq2", true));
+	}
+
+	@MethodSource("prefilterScenarios")
+	@ParameterizedTest
+	void matches_with_skip_ahead(final String regex, final String input,
+			final boolean expected) {
+		final Automaton automaton = new RegExp(regex).toAutomaton();
+		final MatchOnlyRunAutomaton testee = new MatchOnlyRunAutomaton(automaton);
+		assertEquals(expected, testee.matches(input));
+		assertEquals(expected, testee.matches(new StringBuilder(input)));
+		assertEquals(expected, new RunAutomaton(new RegExp(regex).toAutomaton()).newMatcher(input).find());
+	}
+
+	@Test
+	void parallel_search_agrees_with_matches() {
+		final Random random = new Random(17);
+		for (final String regex : new String[] {"ab+c", "a[ab]{3}c", "b*", "c(a|b)*c"}) {
+			final MatchOnlyRunAutomaton testee = new MatchOnlyRunAutomaton(new RegExp(regex).toAutomaton());
+			for (int n = 0; n < 200; n++) {
+				final char[] chars = new char[random.nextInt(60)];
+				for (int i = 0; i < chars.length; i++) {
+					chars[i] = "abcx".charAt(random.nextInt(4));
+				}
+				final String input = new String(chars);
+				final int state = ParallelRun.run(testee.automaton, true, input, 1 + random.nextInt(8), testee.automaton.getSize());
+				assertEquals(testee.matches(input),
+						state == MatchOnlyRunAutomaton.ACCEPTED_STATE || testee.automaton.isAccept(state), regex + " " + input);
+			}
+		}
+		final char[] chars = new char[4 * ParallelRun.MIN_CHUNK];
+		Arrays.fill(chars, 'x');
+		final MatchOnlyRunAutomaton testee = new MatchOnlyRunAutomaton(new RegExp("ab+c").toAutomaton());
+		assertFalse(testee.matchesParallel(new String(chars)));
+		chars[chars.length - 3] = 'a';
+		chars[chars.length - 2] = 'b';
+		chars[chars.length - 1] = 'c';
+		assertTrue(testee.matchesParallel(new String(chars)));
+	}
+
 	@Test
 	void stores_and_loads_as_expected(@TempDir final File tmpdir)
 			throws IOException, ClassNotFoundException {
@@ -0,0 +1,83 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link RegexSet}.
+ */
+final class RegexSetTest {
+
+	private static final List<String> PATTERNS = Arrays.asList(
+			"[0-9]+", "abc", "a.*", "(ab)*", "[a-z]+@[a-z]+\\.com", "\\u00e6\\u00f8\\u00e5", "#", "x|y|z");
+
+	@MethodSource("inputs")
+	@ParameterizedTest
+	void matches_like_individual_automata(final String input) {
+		final List<Automaton> automata = new ArrayList<Automaton>();
+		for (final String p : PATTERNS) {
+			automata.add(new RegExp(p).toAutomaton());
+		}
+
+		final List<Integer> anchored = new ArrayList<Integer>();
+		final List<Integer> search = new ArrayList<Integer>();
+		for (int i = 0; i < automata.size(); i++) {
+			if (new RunAutomaton(automata.get(i)).run(input)) {
+				anchored.add(i);
+			}
+			if (new MatchOnlyRunAutomaton(automata.get(i)).matches(input)) {
+				search.add(i);
+			}
+		}
+
+		for (final boolean tableize : new boolean[] {true, false}) {
+			assertMatches(anchored, new RegexSet(automata, false, tableize), input);
+			assertMatches(search, new RegexSet(automata, true, tableize), input);
+		}
+	}
+
+	private static void assertMatches(final List<Integer> expected, final RegexSet testee, final String input) {
+		assertEquals(expected.toString(), Arrays.toString(testee.matchingPatterns(input)));
+		assertEquals(expected.isEmpty() ? -1 : expected.get(0), testee.firstMatchingPattern(input));
+		assertEquals(!expected.isEmpty(), testee.matchesAny(input));
+	}
+
+	static Stream<Arguments> inputs() {
+		return Stream.of(
+				Arguments.of(""),
+				Arguments.of("abc"),
+				Arguments.of("abab"),
+				Arguments.of("12345"),
+				Arguments.of("mail bob@example.com now"),
+				Arguments.of("æøå"),
+				Arguments.of("-x-"),
+				Arguments.of("---")
+		);
+	}
+
+	@Test
+	void shares_id_sets_and_survives_serialization() throws Exception {
+		final RegexSet testee = new RegexSet(new RegExp("a+"), new RegExp("a*"), new RegExp("b"));
+		assertEquals(3, testee.getPatternCount());
+		assertArrayEquals(new int[] {1}, testee.matchingPatterns(""));
+		assertArrayEquals(new int[] {0, 1}, testee.matchingPatterns("aaa"));
+		// the states for "a", "aa", ... all share one id set
+		assertEquals(4, testee.sets.length);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		testee.store(out);
+		final RegexSet loaded = RegexSet.load(new ByteArrayInputStream(out.toByteArray()));
+		assertArrayEquals(new int[] {2}, loaded.matchingPatterns("b"));
+	}
+}
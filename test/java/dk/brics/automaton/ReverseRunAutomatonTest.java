@@ -0,0 +1,139 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link ReverseRunAutomaton}.
+ */
+final class ReverseRunAutomatonTest {
+
+	static Stream<Arguments> suffixScenarios() {
+		return Stream.of(
+				Arguments.of(".*\\.(txt|log)", "notes.txt", true, 9),
+				Arguments.of(".*\\.(txt|log)", "notes.txt.gz", false, -1),
+				Arguments.of(".*\\.example\\.com", "www.example.com", true, 15),
+				Arguments.of("[a-z]+\\.com", "my-site.com", false, 8),
+				Arguments.of("(ab)*", "xabab", false, 4),
+				Arguments.of("(ab)*", "", true, 0),
+				Arguments.of("a+b", "caaab", false, 4));
+	}
+
+	@MethodSource("suffixScenarios")
+	@ParameterizedTest
+	void runs_backwards_as_expected(final String regex, final String input, final boolean accepted,
+			final int longestSuffix) {
+		final Automaton automaton = new RegExp(regex).toAutomaton();
+		final ReverseRunAutomaton testee = new ReverseRunAutomaton(automaton);
+		assertEquals(accepted, testee.runReverse(input));
+		assertEquals(accepted, new RunAutomaton(automaton).run(input));
+		assertEquals(longestSuffix, testee.longestSuffixMatch(input));
+		assertEquals(longestSuffix, testee.longestSuffixMatch(new StringBuilder(input).append("zz"), input.length()));
+	}
+
+	@Test
+	void suffix_rule_reads_only_the_suffix() {
+		final ReverseRunAutomaton testee = new ReverseRunAutomaton(new RegExp(".*\\.txt").toAutomaton());
+		final CharSequence input = new CharSequence() {
+			public int length() {
+				return 1_000_000;
+			}
+
+			public char charAt(final int index) {
+				if (index < length() - 4) {
+					throw new AssertionError("read char " + index);
+				}
+				return ".txt".charAt(index - (length() - 4));
+			}
+
+			public CharSequence subSequence(final int start, final int end) {
+				throw new UnsupportedOperationException();
+			}
+		};
+		assertTrue(testee.runReverse(input));
+		assertEquals(1_000_000, testee.longestSuffixMatch(input));
+	}
+
+	@Test
+	void matcher_finds_matches_from_right_to_left() {
+		final ReverseRunAutomaton testee = new ReverseRunAutomaton(new RegExp("[0-9]+|ab").toAutomaton());
+		final ReverseAutomatonMatcher matcher = testee.newMatcher("12 ab 345x");
+		assertTrue(matcher.find());
+		assertEquals(6, matcher.start());
+		assertEquals(9, matcher.end());
+		assertEquals("345", matcher.group());
+		assertTrue(matcher.find());
+		assertEquals("ab", matcher.group(0));
+		assertTrue(matcher.find());
+		assertEquals(0, matcher.start());
+		assertEquals(2, matcher.end());
+		assertFalse(matcher.find());
+		assertThrows(IllegalStateException.class, matcher::start);
+
+		final ReverseAutomatonMatcher region = testee.newMatcher("12 ab 345x", 1, 8);
+		assertTrue(region.find());
+		assertEquals("34", region.group());
+		assertEquals(5, region.start());
+		assertEquals(7, region.end());
+		assertTrue(region.find());
+		assertEquals("ab", region.group());
+		assertEquals(2, region.start());
+		assertTrue(region.find());
+		assertEquals("2", region.group());
+		assertEquals(0, region.start());
+		assertFalse(region.find());
+
+		assertThrows(IndexOutOfBoundsException.class, () -> testee.newMatcher("12", 2, 1));
+		assertThrows(IndexOutOfBoundsException.class, () -> testee.newMatcher("12", 0, 3));
+	}
+
+	@Test
+	void matcher_agrees_with_forward_matches_on_reversed_input() {
+		final Random random = new Random(11);
+		final String[] regexes = {"a+b?", "(ab|b)c*", "[a-c]{2,3}", "b*"};
+		for (final String regex : regexes) {
+			final ReverseRunAutomaton testee = new ReverseRunAutomaton(new RegExp(regex).toAutomaton());
+			final Automaton reversed = new RegExp(regex).toAutomaton();
+			SpecialOperations.reverse(reversed);
+			final RunAutomaton forward = new RunAutomaton(reversed);
+			for (int k = 0; k < 200; k++) {
+				final StringBuilder b = new StringBuilder();
+				for (int i = random.nextInt(12); i > 0; i--) {
+					b.append("abcd".charAt(random.nextInt(4)));
+				}
+				final String input = b.toString();
+				final String reversedInput = new StringBuilder(input).reverse().toString();
+				final ReverseAutomatonMatcher matcher = testee.newMatcher(input);
+				final AutomatonMatcher expected = forward.newMatcher(reversedInput);
+				while (expected.find()) {
+					assertTrue(matcher.find());
+					assertEquals(input.length() - expected.end(), matcher.start());
+					assertEquals(input.length() - expected.start(), matcher.end());
+				}
+				assertFalse(matcher.find());
+			}
+		}
+	}
+
+	@Test
+	void stores_and_loads_as_expected() throws IOException, ClassNotFoundException {
+		final ReverseRunAutomaton testee = new ReverseRunAutomaton(new RegExp(".*\\.com").toAutomaton());
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		testee.store(out);
+		final ReverseRunAutomaton loaded = ReverseRunAutomaton.load(new ByteArrayInputStream(out.toByteArray()));
+		assertTrue(loaded.runReverse("example.com"));
+		assertFalse(loaded.runReverse("example.org"));
+	}
+}
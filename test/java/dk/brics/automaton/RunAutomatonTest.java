@@ -1,8 +1,22 @@
 package dk.brics.automaton;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
 import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -50,6 +64,325 @@ final class RunAutomatonTest {
 		assertEquals(expectedLen, tableize.run(input, 0));
 	}
 
+	@MethodSource("runScenarios")
+	@ParameterizedTest
+	void compressed_table_runs_as_expected(final int posStart, final int posEnd, final RegExp regex,
+			final String input) {
+
+		final Automaton automaton = regex.toAutomaton(automatonProvider, true);
+		final boolean expectedMatch = posStart != NOT_MATCHED;
+		final int expectedLen = posStart == NOT_MATCHED ? NOT_MATCHED : posEnd - posStart;
+
+		final RunAutomaton compressed = new RunAutomaton(automaton, true, null, true);
+		assertNull(compressed.transitions);
+		assertEquals(expectedMatch, compressed.run(input));
+		assertEquals(expectedLen, compressed.run(input, 0));
+		assertEquals(expectedMatch, compressed.newMatcher(input).find());
+
+		final RunAutomaton dense = new RunAutomaton(automaton, true, null, false);
+		for (int state = 0; state < dense.getSize(); state++) {
+			for (final char c : dense.getCharIntervals()) {
+				assertEquals(dense.step(state, c), compressed.step(state, c));
+			}
+		}
+	}
+
+	@Test
+	void pair_table_runs_as_expected() throws Exception {
+		final Random random = new Random(18);
+		for (final String regex : new String[] {"(ab|b)*", "a[ab]*b?", "(aa)*b.*", "(ab)*a", "c", "()"}) {
+			final RunAutomaton expected = new RunAutomaton(new RegExp(regex).toAutomaton());
+			final RunAutomaton testee = new RunAutomaton(new RegExp(regex).toAutomaton());
+			assertTrue(testee.usePairTable(1 << 20));
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			testee.store(out);
+			final RunAutomaton loaded = RunAutomaton.load(new ByteArrayInputStream(out.toByteArray()));
+			assertNotNull(loaded.pairs);
+			for (int n = 0; n < 300; n++) {
+				final char[] chars = new char[random.nextInt(12)];
+				for (int i = 0; i < chars.length; i++) {
+					chars[i] = "abc".charAt(random.nextInt(n % 3 == 0 ? 3 : 2));
+				}
+				final String input = new String(chars);
+				final int offset = random.nextInt(chars.length + 2);
+				assertEquals(expected.run(input), testee.run(input), regex + " " + input);
+				assertEquals(expected.run(input, offset), testee.run(input, offset), regex + " " + input + " " + offset);
+				assertEquals(expected.run(input, offset), loaded.run(input, offset), regex + " " + input + " " + offset);
+			}
+		}
+		final RunAutomaton large = new RunAutomaton(new RegExp("[a-z]{1,10}[0-9]").toAutomaton());
+		assertFalse(large.usePairTable(4L * large.getSize() * large.points.length * large.points.length - 1));
+		assertNull(large.pairs);
+		assertTrue(large.usePairTable(4L * large.getSize() * large.points.length * large.points.length));
+		assertFalse(large.usePairTable(0));
+		assertNull(large.pairs);
+	}
+
+	@Test
+	void pair_table_is_refused_when_it_does_not_fit_in_an_array() {
+		final StringBuilder b = new StringBuilder();
+		for (char c = 'a'; b.length() < 1100; c += 2) {
+			b.append(c);
+		}
+		final String s = b.toString();
+		final RunAutomaton testee = new RunAutomaton(BasicAutomata.makeString(s));
+		assertTrue((long)testee.getSize() * testee.points.length * testee.points.length > Integer.MAX_VALUE);
+		assertFalse(testee.usePairTable(Long.MAX_VALUE));
+		assertNull(testee.pairs);
+		assertTrue(testee.run(s));
+		assertEquals(s.length(), testee.run(s + "x", 0));
+		assertFalse(testee.run(s.substring(1)));
+	}
+
+	@Test
+	void batch_run_agrees_with_run() {
+		final RunAutomaton testee = new RunAutomaton(new RegExp("[a-c]*b[a-c]{2}|x.*").toAutomaton());
+		final Random random = new Random(20);
+		final String[] strings = new String[10_000];
+		final CharSequence[] mixed = new CharSequence[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			final char[] chars = new char[random.nextInt(10)];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = "abcx".charAt(random.nextInt(4));
+			}
+			strings[i] = new String(chars);
+			mixed[i] = i % 2 == 0 ? strings[i] : new StringBuilder(strings[i]);
+		}
+		final BitSet expected = new BitSet();
+		for (int i = 0; i < strings.length; i++) {
+			if (testee.run(strings[i])) {
+				expected.set(i);
+			}
+		}
+		assertEquals(expected, testee.runAll(strings, false));
+		assertEquals(expected, testee.runAll(strings, true));
+		assertEquals(expected, testee.runAll(mixed, true));
+		assertEquals(expected, testee.runAll(Arrays.asList(mixed), false));
+		assertEquals(expected, testee.runAll(Arrays.stream(strings).parallel()));
+		assertEquals(expected, testee.runAll(Arrays.stream(mixed)));
+		assertArrayEquals(expected.stream().toArray(), testee.acceptedIndexes(strings, true).toArray());
+
+		final boolean[] results = new boolean[strings.length + 1];
+		Arrays.fill(results, true);
+		testee.runAll(strings, results, true);
+		for (int i = 0; i < strings.length; i++) {
+			assertEquals(expected.get(i), results[i]);
+		}
+		assertTrue(results[strings.length]);
+	}
+
+	@Test
+	void region_runs_agree_with_run_of_substring() {
+		final RunAutomaton testee = new RunAutomaton(new RegExp("[a-c]*b[a-c]{2}|x.*").toAutomaton());
+		final Random random = new Random(25);
+		for (int n = 0; n < 2000; n++) {
+			final char[] chars = new char[random.nextInt(12)];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = "abcx".charAt(random.nextInt(4));
+			}
+			final String string = new String(chars);
+			final int start = random.nextInt(chars.length + 1);
+			final int end = start + random.nextInt(chars.length - start + 1);
+			final boolean expected = testee.run(string.substring(start, end));
+
+			assertEquals(expected, testee.run(string, start, end));
+			assertEquals(expected, testee.run(chars, start, end));
+			final CharBuffer heap = CharBuffer.wrap(chars, start, end - start);
+			assertEquals(expected, testee.run(heap));
+			assertEquals(start, heap.position());
+			final CharBuffer direct = ByteBuffer.allocateDirect(2 * chars.length).asCharBuffer().put(chars);
+			direct.limit(end).position(start);
+			assertEquals(expected, testee.run(direct));
+			assertEquals(expected, testee.runChars(direct.slice()));
+		}
+		assertThrows(IndexOutOfBoundsException.class, () -> testee.run("abc", 2, 4));
+		assertThrows(IndexOutOfBoundsException.class, () -> testee.run(new char[3], 2, 1));
+	}
+
+	@Test
+	void dense_table_uses_narrowest_entries() {
+		// tables below NARROW_MIN_SIZE entries keep int entries
+		assertNotNull(new RunAutomaton(new RegExp("[a-c]{0,100}").toAutomaton(), true, null, false).transitions);
+
+		// few states, but many char classes
+		final StringBuilder set = new StringBuilder();
+		for (char c = '\u0100'; c < '\u0200'; c += 2) {
+			set.append(c);
+		}
+		final Automaton automaton = new RegExp("[a-c]{0,100}").toAutomaton().union(BasicAutomata.makeCharSet(set.toString()));
+		final RunAutomaton tiny = new RunAutomaton(automaton, true, null, false);
+		assertNotNull(tiny.transitions8);
+		final RunAutomaton small = new RunAutomaton(new RegExp("[a-c]{0,3000}").toAutomaton(), true, null, false);
+		assertNotNull(small.transitions16);
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 40000; i++) {
+			b.append((char) ('a' + i % 3));
+		}
+		final RunAutomaton large = new RunAutomaton(BasicAutomata.makeString(b.toString()), true, null, false);
+		assertNotNull(large.transitions);
+
+		for (final RunAutomaton dense : new RunAutomaton[] {tiny, small, large}) {
+			final RunAutomaton compressed = new RunAutomaton(dense.toAutomaton(), true, null, true);
+			assertEquals(dense.getSize(), compressed.getSize());
+			final Random random = new Random(7);
+			for (int k = 0; k < 100; k++) {
+				final String input = k < 50 ? b.substring(0, random.nextInt(2000)) + "abcd".charAt(random.nextInt(4))
+						: b.substring(random.nextInt(3), 1 + random.nextInt(500));
+				assertEquals(compressed.run(input), dense.run(input));
+				assertEquals(compressed.run(input, 0), dense.run(input, 0));
+			}
+		}
+		assertTrue(large.run(b.toString()));
+		assertFalse(large.run(b.substring(1)));
+
+		// MatchOnlyRunAutomaton maps accepting targets to -2, which must fit too
+		final RunAutomaton override = new RunAutomaton(automaton, true, -2, false);
+		assertNotNull(override.transitions8);
+		for (int state = 0; state < tiny.getSize(); state++) {
+			final int expected = tiny.step(state, 'a');
+			assertEquals(expected != -1 && tiny.isAccept(expected) ? -2 : expected, override.step(state, 'a'));
+		}
+	}
+
+	@Test
+	void accept_states_are_numbered_last() {
+		final RunAutomaton testee = new RunAutomaton(new RegExp("(ab|a[0-9]+)*c?").toAutomaton());
+		boolean seenAccept = false;
+		for (int state = 0; state < testee.getSize(); state++) {
+			assertEquals(testee.accept[state], testee.isAccept(state));
+			assertTrue(testee.accept[state] || !seenAccept);
+			seenAccept |= testee.accept[state];
+		}
+	}
+
+	@Test
+	void stops_at_dead_and_universal_states() {
+		final RunAutomaton testee = new RunAutomaton(new RegExp("x[a-z]*|foo.*").toAutomaton());
+		int p = testee.getInitialState();
+		for (final char c : "foo".toCharArray()) {
+			assertFalse(testee.isUniversal(p));
+			p = testee.step(p, c);
+		}
+		assertTrue(testee.isUniversal(p));
+		assertTrue(testee.isAccept(p));
+		assertFalse(testee.isUniversal(testee.step(testee.getInitialState(), 'x')));
+
+		assertTrue(testee.run("foo bar"));
+		assertEquals(7, testee.run("foo bar", 0));
+		assertEquals(4, testee.run("xfoo bar", 0));
+		assertEquals(7, testee.run("a foo bar", 2));
+		final AutomatonMatcher matcher = testee.newMatcher("zz foo bar");
+		assertTrue(matcher.find());
+		assertEquals(3, matcher.start());
+		assertEquals(10, matcher.end());
+
+		// b leads to a state from which no accept state is reachable
+		final State initial = new State();
+		final State accepting = new State();
+		final State dead = new State();
+		accepting.setAccept(true);
+		initial.addTransition(new Transition('a', accepting));
+		initial.addTransition(new Transition('b', dead));
+		dead.addTransition(new Transition('a', 'z', dead));
+		final Automaton automaton = new Automaton();
+		automaton.setInitialState(initial);
+		final RunAutomaton withDead = new RunAutomaton(automaton);
+		assertEquals(-1, withDead.step(withDead.getInitialState(), 'b'));
+		assertTrue(withDead.run("a"));
+		assertFalse(withDead.run("bab"));
+	}
+
+	@Test
+	void parallel_run_agrees_with_run() {
+		final Random random = new Random(17);
+		for (final String regex : new String[] {"(ab|b)*", "[ab]*a[ab]{3}", "a.*", "(aa|b)*c?", "x"}) {
+			final RunAutomaton testee = new RunAutomaton(new RegExp(regex).toAutomaton());
+			for (int n = 0; n < 200; n++) {
+				final char[] chars = new char[random.nextInt(60)];
+				for (int i = 0; i < chars.length; i++) {
+					chars[i] = "abc".charAt(random.nextInt(n % 2 == 0 ? 2 : 3));
+				}
+				final String input = new String(chars);
+				final int state = ParallelRun.run(testee, false, input, 1 + random.nextInt(8), testee.getSize());
+				assertEquals(testee.run(input), state != -1 && testee.isAccept(state), regex + " " + input);
+			}
+		}
+		final StringBuilder b = new StringBuilder();
+		while (b.length() < 4 * ParallelRun.MIN_CHUNK) {
+			b.append(random.nextBoolean() ? "ab" : "b");
+		}
+		final RunAutomaton testee = new RunAutomaton(new RegExp("(ab|b)*").toAutomaton());
+		assertTrue(testee.runParallel(b));
+		assertFalse(testee.runParallel(b.append('a')));
+	}
+
+	@Test
+	void parallel_run_falls_back_when_runs_do_not_merge() {
+		// the states count the chars modulo 3, so runs from different states never merge
+		final RunAutomaton testee = new RunAutomaton(new RegExp("([ab]{3})*").toAutomaton());
+		final StringBuilder b = new StringBuilder();
+		while (b.length() < 4 * ParallelRun.MIN_CHUNK) {
+			b.append("ab");
+		}
+		for (int n = 0; n < 3; n++, b.append('b')) {
+			final boolean expected = testee.run(b.toString());
+			for (int maxRuns = 1; maxRuns <= 3; maxRuns++) {
+				final int state = ParallelRun.run(testee, false, b, ParallelRun.MIN_CHUNK, maxRuns);
+				assertEquals(expected, state != -1 && testee.isAccept(state), n + " " + maxRuns);
+			}
+		}
+	}
+
+	@Test
+	void loads_automaton_with_accept_states_not_numbered_last() throws Exception {
+		final RunAutomaton testee = new RunAutomaton(new RegExp("(ab|a[0-9]+)*c?").toAutomaton());
+		final String[] inputs = {"", "ab", "a12ab", "a12abc", "a", "aa", "c", "cc", "ab1"};
+
+		// number the states in reverse, as a version without the ordering could have
+		final int size = testee.getSize();
+		final int classes = testee.points.length;
+		final int[] reversed = new int[testee.transitions.length];
+		final boolean[] accept = new boolean[size];
+		for (int state = 0; state < size; state++) {
+			accept[size - 1 - state] = testee.accept[state];
+			for (int c = 0; c < classes; c++) {
+				final int target = testee.transitions[state * classes + c];
+				reversed[(size - 1 - state) * classes + c] = target == -1 ? -1 : size - 1 - target;
+			}
+		}
+		testee.transitions = reversed;
+		testee.accept = accept;
+		testee.initial = size - 1 - testee.initial;
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		testee.store(out);
+		final RunAutomaton loaded = RunAutomaton.load(new ByteArrayInputStream(out.toByteArray()));
+		final RunAutomaton expected = new RunAutomaton(new RegExp("(ab|a[0-9]+)*c?").toAutomaton());
+		for (final String input : inputs) {
+			assertEquals(expected.run(input), loaded.run(input));
+			assertEquals(expected.run(input, 0), loaded.run(input, 0));
+		}
+		for (int state = 0; state < size; state++) {
+			assertEquals(loaded.accept[state], loaded.isAccept(state));
+		}
+	}
+
+	@Test
+	void char_classes_same_with_and_without_table() {
+		// every char of some pages is a char class of its own
+		Automaton automaton = BasicAutomata.makeEmpty();
+		for (char c = '\u00f0'; c < '\u0210'; c++) {
+			automaton = automaton.union(BasicAutomata.makeChar(c).concatenate(BasicAutomata.makeChar(c)));
+		}
+		automaton = automaton.union(BasicAutomata.makeCharRange('\u4e00', '\u9fa5').repeat(2));
+
+		final RunAutomaton noTableize = new RunAutomaton(automaton, false);
+		final RunAutomaton tableize = new RunAutomaton(automaton, true);
+		for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+			assertEquals(noTableize.getCharClass((char) c), tableize.getCharClass((char) c));
+		}
+	}
+
 	static Stream<Arguments> runScenarios() {
 		final String aThenbThenc = "a+b+c+";
 		final String aToZThen4ExclamationMarks = "([a-z]{1,3}!{4})";
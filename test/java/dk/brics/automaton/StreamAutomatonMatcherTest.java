@@ -0,0 +1,189 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests {@link StreamAutomatonMatcher}.
+ */
+final class StreamAutomatonMatcherTest {
+
+	static Stream<Arguments> regexes() {
+		return Stream.of(
+				Arguments.of("ab|b"),
+				Arguments.of("a*b"),
+				Arguments.of("a*"),
+				Arguments.of("(ab)+c?"),
+				Arguments.of("b[ab]*a"),
+				Arguments.of("c(a|b)*c"),
+				Arguments.of("a.*"),
+				Arguments.of("x[a-c]*b|c"),
+				Arguments.of("a[ab]*c|b[ab]*x|ab"),
+				Arguments.of("c"));
+	}
+
+	@MethodSource("regexes")
+	@ParameterizedTest
+	void finds_the_same_matches_as_automaton_matcher(final String regex) throws IOException {
+		final RunAutomaton automaton = new RunAutomaton(new RegExp(regex).toAutomaton());
+		final Random random = new Random(regex.hashCode());
+		for (int n = 0; n < 200; n++) {
+			final char[] chars = new char[random.nextInt(40)];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = "abcx".charAt(random.nextInt(4));
+			}
+			final String input = new String(chars);
+			final List<Long> expected = new ArrayList<>();
+			final AutomatonMatcher matcher = automaton.newMatcher(input);
+			while (matcher.find()) {
+				expected.add((long)matcher.start());
+				expected.add((long)matcher.end());
+			}
+			final StreamAutomatonMatcher testee = automaton.newStreamMatcher(new ChunkedReader(input, 3), 64);
+			final List<Long> actual = new ArrayList<>();
+			while (testee.find()) {
+				actual.add(testee.start());
+				actual.add(testee.end());
+			}
+			assertEquals(expected, actual, input);
+			assertFalse(testee.find());
+		}
+	}
+
+	@Test
+	void keeps_a_bounded_window_on_long_input() throws IOException {
+		final RunAutomaton automaton = new RunAutomaton(new RegExp("[0-9]+").toAutomaton());
+		final long length = 10_000_000;
+		final Reader in = new Reader() {
+			private long offset;
+
+			@Override
+			public int read(final char[] buf, final int off, final int len) {
+				if (offset == length) {
+					return -1;
+				}
+				final int n = (int)Math.min(len, length - offset);
+				for (int i = 0; i < n; i++, offset++) {
+					buf[off + i] = offset % 1000 < 990 ? 'x' : '7';
+				}
+				return n;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		final StreamAutomatonMatcher testee = automaton.newStreamMatcher(in, 16);
+		long count = 0;
+		while (testee.find()) {
+			assertEquals(count * 1000 + 990, testee.start());
+			assertEquals(count * 1000 + 1000, testee.end());
+			count++;
+		}
+		assertEquals(length / 1000, count);
+	}
+
+	@Test
+	void finds_the_leftmost_of_many_candidates_in_one_pass() throws IOException {
+		final RunAutomaton automaton = new RunAutomaton(new RegExp("x[a-z]*y|z").toAutomaton());
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 200000; i++) {
+			b.append('x');
+		}
+		final StreamAutomatonMatcher testee = automaton.newStreamMatcher(new ChunkedReader(b.append("zz").toString(), 1000));
+		assertTrue(testee.find());
+		assertEquals(200000, testee.start());
+		assertEquals(200001, testee.end());
+		assertTrue(testee.find());
+		assertEquals(200001, testee.start());
+		assertFalse(testee.find());
+	}
+
+	@Test
+	void finds_the_same_matches_when_minimizing_always() throws IOException {
+		Automaton.setMinimizeAlways(true);
+		try {
+			final RunAutomaton automaton = new RunAutomaton(new RegExp("a*b").toAutomaton());
+			final StreamAutomatonMatcher testee = automaton.newStreamMatcher(new StringReader("xaab"));
+			assertTrue(testee.find());
+			assertEquals(1, testee.start());
+			assertEquals(4, testee.end());
+		} finally {
+			Automaton.setMinimizeAlways(false);
+		}
+	}
+
+	@Test
+	void fails_when_a_candidate_does_not_fit() throws IOException {
+		final RunAutomaton automaton = new RunAutomaton(new RegExp("a+b").toAutomaton());
+		final StringBuilder b = new StringBuilder("ab x ");
+		for (int i = 0; i < 100; i++) {
+			b.append('a');
+		}
+		final StreamAutomatonMatcher testee = automaton.newStreamMatcher(new StringReader(b.append('b').toString()), 32);
+		assertTrue(testee.find());
+		assertEquals(0, testee.start());
+		assertThrows(IOException.class, testee::find);
+	}
+
+	@Test
+	void reads_decoded_chars_from_a_channel() throws IOException {
+		final RunAutomaton automaton = new RunAutomaton(new RegExp("\u00e6+").toAutomaton());
+		final byte[] bytes = "x\u00e6\u00e6y\u00e6".getBytes(StandardCharsets.UTF_8);
+		final StreamAutomatonMatcher testee = automaton.newStreamMatcher(
+				Channels.newChannel(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8);
+		assertTrue(testee.find());
+		assertEquals(1, testee.start());
+		assertEquals(3, testee.end());
+		assertTrue(testee.find());
+		assertEquals(4, testee.start());
+		assertEquals(5, testee.end());
+		assertFalse(testee.find());
+		assertThrows(IllegalStateException.class, testee::start);
+	}
+
+	/** A reader that returns at most a given number of chars per call. */
+	private static final class ChunkedReader extends Reader {
+
+		private final String s;
+		private final int chunk;
+		private int offset;
+
+		ChunkedReader(final String s, final int chunk) {
+			this.s = s;
+			this.chunk = chunk;
+		}
+
+		@Override
+		public int read(final char[] buf, final int off, final int len) {
+			if (offset == s.length()) {
+				return -1;
+			}
+			final int n = Math.min(Math.min(len, chunk), s.length() - offset);
+			s.getChars(offset, offset + n, buf, off);
+			offset += n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
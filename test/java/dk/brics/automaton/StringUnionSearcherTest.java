@@ -0,0 +1,85 @@
+package dk.brics.automaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link StringUnionSearcher}.
+ */
+final class StringUnionSearcherTest {
+
+	@Test
+	void finds_all_overlapping_occurrences() {
+		final Random random = new Random(42);
+		final TreeSet<String> set = new TreeSet<String>(StringUnionOperations.LEXICOGRAPHIC_ORDER);
+		while (set.size() < 200) {
+			set.add(randomString(random, 1 + random.nextInt(5)));
+		}
+		final String[] terms = set.toArray(new String[0]);
+		final StringUnionSearcher testee = new StringUnionSearcher(terms);
+		final String text = randomString(random, 2000);
+
+		final List<String> expected = new ArrayList<String>();
+		for (int end = 1; end <= text.length(); end++) {
+			for (int id = 0; id < terms.length; id++) {
+				if (text.startsWith(terms[id], end - terms[id].length())) {
+					expected.add(terms[id].length() + ":" + id + "@" + end);
+				}
+			}
+		}
+		final List<String> actual = new ArrayList<String>();
+		final StringUnionMatcher matcher = testee.newMatcher(text);
+		while (matcher.find()) {
+			assertEquals(terms[matcher.term()], text.substring(matcher.start(), matcher.end()));
+			actual.add(terms[matcher.term()].length() + ":" + matcher.term() + "@" + matcher.end());
+		}
+		// occurrences with the same end are reported longest first
+		Collections.sort(expected, (a, b) -> a.substring(a.indexOf('@')).equals(b.substring(b.indexOf('@')))
+				? b.compareTo(a) : 0);
+		assertEquals(expected, actual);
+		assertTrue(testee.matches(text));
+	}
+
+	@Test
+	void finds_non_overlapping_occurrences() {
+		final String[] terms = {"abcd", "bc", "cde", "he", "hers", "she"};
+		final StringUnionSearcher testee = new StringUnionSearcher(terms);
+		assertEquals("[1,3][5,8]", findAll(testee.newMatcher("abcdeshe", 0, 8, false)));
+		assertEquals("[1,3][0,4][2,5][5,8][6,8][6,10]", findAll(testee.newMatcher("abcdeshers", 0, 10, true)));
+		assertFalse(testee.matches("abxhx"));
+	}
+
+	private static String findAll(final StringUnionMatcher matcher) {
+		final StringBuilder b = new StringBuilder();
+		while (matcher.find()) {
+			b.append('[').append(matcher.start()).append(',').append(matcher.end()).append(']');
+		}
+		return b.toString();
+	}
+
+	@Test
+	void rejects_unsorted_input() {
+		assertThrows(IllegalArgumentException.class, () -> new StringUnionSearcher(new String[] {"b", "a"}));
+		assertThrows(IllegalArgumentException.class, () -> new StringUnionSearcher(new String[] {"ab", "a"}));
+		assertThrows(IllegalArgumentException.class, () -> new StringUnionSearcher(new String[] {""}));
+		assertEquals(3, new StringUnionSearcher(new String[] {"a", "a", "ab"}).getStringCount());
+	}
+
+	private static String randomString(final Random random, final int length) {
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			b.append("abcæ中".charAt(random.nextInt(5)));
+		}
+		return b.toString();
+	}
+}